@@ -0,0 +1,156 @@
+package samethope.inventory_shuffle.data;
+
+import net.minecraft.nbt.NbtCompound;
+import net.minecraft.nbt.NbtIo;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares saving and loading the state file in the legacy NBT layout and in
+ * the binary layout, with and without compression. The file sizes are printed
+ * once per trial.
+ * <p>
+ * Saves write to memory so disk speed does not skew the results, loads read
+ * from a temporary file through {@link StateFormat#read}, which also covers
+ * the migration path for the legacy layout.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class StateFormatBenchmark {
+  @Param({ "100000", "500000" })
+  public int members;
+
+  @Param({ "16" })
+  public int groups;
+
+  private StateSnapshot snapshot;
+  private Path legacyFile;
+  private Path binaryFile;
+  private Path compressedFile;
+
+  @Setup(Level.Trial)
+  public void setup() throws IOException {
+    Random random = new Random(42);
+
+    List<StateSnapshot.GroupEntry> groupEntries = new ArrayList<>();
+    for (int id = 0; id < groups; id++) {
+      groupEntries.add(new StateSnapshot.GroupEntry(id, "group" + id, true, 10, 0b111, 5));
+    }
+
+    long[] uuids = new long[2 * members];
+    int[] groupIds = new int[members];
+    for (int i = 0; i < members; i++) {
+      UUID uuid = new UUID(random.nextLong(), random.nextLong());
+      uuids[2 * i] = uuid.getMostSignificantBits();
+      uuids[2 * i + 1] = uuid.getLeastSignificantBits();
+      groupIds[i] = random.nextInt(groups);
+    }
+    snapshot = new StateSnapshot(1, groupEntries, uuids, groupIds);
+
+    legacyFile = Files.createTempFile("inventory-shuffle-legacy", ".dat");
+    try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(legacyFile)))) {
+      NbtIo.write(toLegacyNbt(snapshot), out);
+    }
+    binaryFile = Files.createTempFile("inventory-shuffle-binary", ".dat");
+    try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(binaryFile))) {
+      StateFormat.write(snapshot, out, false);
+    }
+    compressedFile = Files.createTempFile("inventory-shuffle-compressed", ".dat");
+    try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(compressedFile))) {
+      StateFormat.write(snapshot, out, true);
+    }
+
+    System.out.printf("%n%d members: legacy NBT %d bytes, binary %d bytes, compressed binary %d bytes%n", members,
+        Files.size(legacyFile), Files.size(binaryFile), Files.size(compressedFile));
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() throws IOException {
+    Files.deleteIfExists(legacyFile);
+    Files.deleteIfExists(binaryFile);
+    Files.deleteIfExists(compressedFile);
+  }
+
+  @Benchmark
+  public int saveLegacy() throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    NbtIo.write(toLegacyNbt(snapshot), new DataOutputStream(bytes));
+    return bytes.size();
+  }
+
+  @Benchmark
+  public int saveBinary() throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    StateFormat.write(snapshot, bytes, false);
+    return bytes.size();
+  }
+
+  @Benchmark
+  public int saveCompressed() throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    StateFormat.write(snapshot, bytes, true);
+    return bytes.size();
+  }
+
+  @Benchmark
+  public StateSnapshot loadLegacy() throws IOException {
+    return StateFormat.read(legacyFile);
+  }
+
+  @Benchmark
+  public StateSnapshot loadBinary() throws IOException {
+    return StateFormat.read(binaryFile);
+  }
+
+  @Benchmark
+  public StateSnapshot loadCompressed() throws IOException {
+    return StateFormat.read(compressedFile);
+  }
+
+  /**
+   * Builds the NBT layout the state file used before the binary format, which
+   * also stored a name for every member
+   */
+  private static NbtCompound toLegacyNbt(StateSnapshot snapshot) {
+    NbtCompound rootNbt = new NbtCompound();
+
+    NbtCompound groupsNbt = new NbtCompound();
+    Map<Integer, String> groupNames = new HashMap<>();
+    for (StateSnapshot.GroupEntry group : snapshot.groups()) {
+      NbtCompound groupNbt = new NbtCompound();
+      groupNbt.putBoolean("Enabled", group.enabled());
+      groupNbt.putInt("Interval", group.interval());
+      groupNbt.putBoolean("ShuffleEmptySlots", (group.optionFlags() & ShuffleGroup.FLAG_SHUFFLE_EMPTY_SLOTS) != 0);
+      groupNbt.putBoolean("ShuffleInventory", (group.optionFlags() & ShuffleGroup.FLAG_SHUFFLE_INVENTORY) != 0);
+      groupNbt.putBoolean("ShuffleHotbar", (group.optionFlags() & ShuffleGroup.FLAG_SHUFFLE_HOTBAR) != 0);
+      groupNbt.putBoolean("ShuffleHand", (group.optionFlags() & ShuffleGroup.FLAG_SHUFFLE_HAND) != 0);
+      groupNbt.putBoolean("ShuffleOffhand", (group.optionFlags() & ShuffleGroup.FLAG_SHUFFLE_OFFHAND) != 0);
+      groupNbt.putInt("TicksLeft", group.ticksLeft());
+      groupsNbt.put(group.name(), groupNbt);
+      groupNames.put(group.id(), group.name());
+    }
+    rootNbt.put("Groups", groupsNbt);
+
+    NbtCompound playerGroupsNbt = new NbtCompound();
+    NbtCompound playerNamesNbt = new NbtCompound();
+    long[] uuids = snapshot.memberUuids();
+    for (int i = 0; i < snapshot.memberCount(); i++) {
+      String uuid = new UUID(uuids[2 * i], uuids[2 * i + 1]).toString();
+      playerGroupsNbt.putString(uuid, groupNames.get(snapshot.memberGroupIds()[i]));
+      playerNamesNbt.putString(uuid, "Player" + i);
+    }
+    rootNbt.put("PlayerGroups", playerGroupsNbt);
+    rootNbt.put("PlayerNames", playerNamesNbt);
+
+    return rootNbt;
+  }
+}
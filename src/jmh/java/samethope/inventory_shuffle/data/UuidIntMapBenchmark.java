@@ -0,0 +1,99 @@
+package samethope.inventory_shuffle.data;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares {@link UuidIntMap} to the {@code HashMap<UUID, Integer>} it
+ * replaced for the membership table.
+ * <p>
+ * The {@code build} benchmarks fill a map from scratch, so with the GC profiler
+ * of the jmh task their allocation per operation approximates the memory
+ * footprint of a map of that size. The {@code lookup} benchmarks query every
+ * key once in random order through fresh UUID instances, like lookups for
+ * player entities do.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class UuidIntMapBenchmark {
+  @Param({ "100000", "1000000" })
+  public int size;
+
+  private UUID[] keys;
+  private UUID[] queries;
+  private HashMap<UUID, Integer> hashMap;
+  private UuidIntMap uuidIntMap;
+
+  @Setup(Level.Trial)
+  public void setup() {
+    Random random = new Random(42);
+    keys = new UUID[size];
+    queries = new UUID[size];
+    for (int i = 0; i < size; i++) {
+      keys[i] = new UUID(random.nextLong(), random.nextLong());
+    }
+    for (int i = 0; i < size; i++) {
+      UUID key = keys[random.nextInt(size)];
+      queries[i] = new UUID(key.getMostSignificantBits(), key.getLeastSignificantBits());
+    }
+
+    hashMap = buildHashMap();
+    uuidIntMap = buildUuidIntMap();
+  }
+
+  @Benchmark
+  public HashMap<UUID, Integer> buildHashMap() {
+    HashMap<UUID, Integer> map = new HashMap<>();
+    for (int i = 0; i < size; i++) {
+      // Copy the key like loading from disk would
+      UUID key = keys[i];
+      map.put(new UUID(key.getMostSignificantBits(), key.getLeastSignificantBits()), i & 15);
+    }
+    return map;
+  }
+
+  @Benchmark
+  public UuidIntMap buildUuidIntMap() {
+    UuidIntMap map = new UuidIntMap();
+    for (int i = 0; i < size; i++) {
+      UUID key = keys[i];
+      map.put(key.getMostSignificantBits(), key.getLeastSignificantBits(), i & 15);
+    }
+    return map;
+  }
+
+  @Benchmark
+  public long lookupHashMap() {
+    Map<UUID, Integer> map = hashMap;
+    long sum = 0;
+    for (UUID query : queries) {
+      Integer value = map.get(query);
+      if (value != null) {
+        sum += value;
+      }
+    }
+    return sum;
+  }
+
+  @Benchmark
+  public long lookupUuidIntMap() {
+    UuidIntMap map = uuidIntMap;
+    long sum = 0;
+    for (UUID query : queries) {
+      int value = map.get(query);
+      if (value != UuidIntMap.NO_VALUE) {
+        sum += value;
+      }
+    }
+    return sum;
+  }
+}
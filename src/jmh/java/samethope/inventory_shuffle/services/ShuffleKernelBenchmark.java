@@ -0,0 +1,161 @@
+package samethope.inventory_shuffle.services;
+
+import org.openjdk.jmh.annotations.*;
+import samethope.inventory_shuffle.data.SlotPlan;
+
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the cost of shuffling one player inventory for every combination of
+ * slot options and several fill levels.
+ * <p>
+ * Bootstrapping the Minecraft registries just to create item stacks is too heavy
+ * for a benchmark, so the inventory is a plain array of stand-in stacks that
+ * {@link #shuffle} runs the same {@link SlotShuffler} on as
+ * {@code InventoryShuffler}. {@link #legacyShuffle} replays the previous
+ * list based implementation for comparison. Run with {@code -prof gc} (the
+ * default of the jmh task) to see the bytes allocated per operation.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ShuffleKernelBenchmark {
+  /**
+   * Slot options as a bitmask: hotbar, hand, inventory, offhand, empty slots
+   */
+  @Param({ "0", "1", "2", "3", "4", "5", "6", "7", "8", "9", "10", "11", "12", "13", "14", "15", "16", "17", "18",
+      "19", "20", "21", "22", "23", "24", "25", "26", "27", "28", "29", "30", "31" })
+  public int options;
+
+  @Param({ "EMPTY", "HALF", "FULL", "IDENTICAL" })
+  public String fill;
+
+  private static final StubStack EMPTY = new StubStack("air", 0);
+
+  private final StubStack[] inventory = new StubStack[ShuffleKernel.SLOT_COUNT];
+  private final SlotShuffler<StubStack> shuffler = new SlotShuffler<>(EMPTY);
+  private final SlotShuffler.Slots<StubStack> slots = new SlotShuffler.Slots<>() {
+    @Override
+    public StubStack get(int slot) {
+      return inventory[slot];
+    }
+
+    @Override
+    public void set(int slot, StubStack stack) {
+      inventory[slot] = stack;
+    }
+
+    @Override
+    public boolean isEmpty(StubStack stack) {
+      return stack.isEmpty();
+    }
+  };
+  private final Random random = new Random(42);
+  private final int selectedSlot = 4;
+
+  private SlotPlan plan;
+  private boolean shuffleEmptySlots;
+
+  /**
+   * Stand-in for an item stack, only identity and emptiness matter to the
+   * shuffle
+   */
+  private record StubStack(String item, int count) {
+    boolean isEmpty() {
+      return count == 0;
+    }
+
+    StubStack copy() {
+      return new StubStack(item, count);
+    }
+  }
+
+  @Setup
+  public void setup() {
+    plan = SlotPlan.compile((options & 1) != 0, (options & 2) != 0, (options & 4) != 0, (options & 8) != 0);
+    shuffleEmptySlots = (options & 16) != 0;
+
+    for (int slot = 0; slot < ShuffleKernel.SLOT_COUNT; slot++) {
+      inventory[slot] = switch (fill) {
+        case "EMPTY" -> EMPTY;
+        case "HALF" -> slot % 2 == 0 ? new StubStack("item" + slot, 1 + slot) : EMPTY;
+        case "FULL" -> new StubStack("item" + slot, 1 + slot);
+        case "IDENTICAL" -> new StubStack("cobblestone", 64);
+        default -> throw new IllegalArgumentException("Unknown fill level: " + fill);
+      };
+    }
+  }
+
+  @Benchmark
+  public int shuffle() {
+    return shuffler.shuffle(slots, plan.resolve(selectedSlot), shuffleEmptySlots, random);
+  }
+
+  @Benchmark
+  public int legacyShuffle() {
+    boolean shuffleHotbar = (options & 1) != 0;
+    boolean shuffleHand = (options & 2) != 0;
+    boolean shuffleInventory = (options & 4) != 0;
+    boolean shuffleOffhand = (options & 8) != 0;
+
+    List<StubStack> items = new ArrayList<>();
+    List<Integer> itemSlots = new ArrayList<>();
+    List<Integer> emptySlots = new ArrayList<>();
+
+    if (shuffleHotbar) {
+      for (int i = 0; i < 9; i++) {
+        if (shuffleHand || i != selectedSlot) {
+          legacyProcessSlot(i, items, itemSlots, emptySlots);
+        }
+      }
+    } else if (shuffleHand) {
+      legacyProcessSlot(selectedSlot, items, itemSlots, emptySlots);
+    }
+    if (shuffleInventory) {
+      for (int i = 9; i < 36; i++) {
+        legacyProcessSlot(i, items, itemSlots, emptySlots);
+      }
+    }
+    if (shuffleOffhand) {
+      legacyProcessSlot(40, items, itemSlots, emptySlots);
+    }
+
+    if (items.isEmpty()) {
+      return 0;
+    }
+
+    Collections.shuffle(items, random);
+    if (shuffleEmptySlots) {
+      List<Integer> allSlots = new ArrayList<>(itemSlots);
+      allSlots.addAll(emptySlots);
+      Collections.shuffle(allSlots, random);
+
+      List<Integer> targetSlots = allSlots.subList(0, Math.min(items.size(), allSlots.size()));
+      Collections.shuffle(targetSlots, random);
+      for (int i = 0; i < items.size() && i < targetSlots.size(); i++) {
+        inventory[targetSlots.get(i)] = items.get(i);
+      }
+    } else {
+      for (int i = 0; i < items.size() && i < itemSlots.size(); i++) {
+        inventory[itemSlots.get(i)] = items.get(i);
+      }
+    }
+    return items.size();
+  }
+
+  private void legacyProcessSlot(int slot, List<StubStack> items, List<Integer> itemSlots,
+      List<Integer> emptySlots) {
+    StubStack stack = inventory[slot];
+    if (!stack.isEmpty()) {
+      items.add(stack.copy());
+      itemSlots.add(slot);
+      inventory[slot] = EMPTY;
+    } else {
+      emptySlots.add(slot);
+    }
+  }
+}
@@ -2,12 +2,17 @@ package samethope.inventory_shuffle;
 
 import net.fabricmc.api.ModInitializer;
 import net.fabricmc.fabric.api.command.v2.CommandRegistrationCallback;
+import net.fabricmc.fabric.api.entity.event.v1.ServerPlayerEvents;
 import net.fabricmc.fabric.api.event.lifecycle.v1.ServerLifecycleEvents;
 import net.fabricmc.fabric.api.event.lifecycle.v1.ServerTickEvents;
+import net.fabricmc.fabric.api.networking.v1.ServerPlayConnectionEvents;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import samethope.inventory_shuffle.commands.InvShuffleCommand;
 import samethope.inventory_shuffle.data.ModState;
+import samethope.inventory_shuffle.services.StateBackups;
+import samethope.inventory_shuffle.services.StateTransfer;
+import samethope.inventory_shuffle.services.StateWriter;
 
 public class InventoryShuffle implements ModInitializer {
 	public static final String MOD_ID = "inventory-shuffle";
@@ -23,11 +28,30 @@ public class InventoryShuffle implements ModInitializer {
 		});
 
 		ServerLifecycleEvents.BEFORE_SAVE.register((server, flush, force) -> {
-			ModState.saveToNbt(server);
-			LOGGER.info("Inventory Shuffle state saved");
+			// Autosaves skip unchanged state and write in the background, flushing saves (such as on shutdown)
+			// also persist the shuffle timers and wait for the write
+			if (ModState.saveToNbt(server, flush || force, flush)) {
+				LOGGER.info("Inventory Shuffle state saved");
+			}
+			ModState.backupIfDue(server);
 		});
 
+		// Transfers are abandoned before the final save, so a replacing import that is put back is saved
+		ServerLifecycleEvents.SERVER_STOPPING.register(server -> StateTransfer.cancel());
+
+		ServerLifecycleEvents.SERVER_STOPPED.register(server -> {
+			StateWriter.shutdown();
+			StateBackups.shutdown();
+		});
+
+		ServerPlayConnectionEvents.JOIN.register((handler, sender, server) -> ModState.onPlayerJoin(handler.getPlayer()));
+		ServerPlayConnectionEvents.DISCONNECT.register((handler, server) -> ModState.onPlayerLeave(handler.getPlayer()));
+		ServerPlayerEvents.AFTER_RESPAWN.register((oldPlayer, newPlayer, alive) -> ModState.onPlayerRespawn(newPlayer));
+
 		ServerTickEvents.END_SERVER_TICK.register(ModState::processTick);
+		ServerTickEvents.END_SERVER_TICK.register(server -> StateTransfer.tick());
+		// Registered last so the changes made anywhere during the tick are journaled with it
+		ServerTickEvents.END_SERVER_TICK.register(ModState::appendJournal);
 
 		LOGGER.info("Inventory Shuffle initialized");
 	}
@@ -1,23 +1,58 @@
 package samethope.inventory_shuffle.commands;
 
 import com.mojang.brigadier.context.CommandContext;
+import net.minecraft.server.MinecraftServer;
 import net.minecraft.server.command.ServerCommandSource;
+import net.minecraft.server.network.ServerPlayerEntity;
 import net.minecraft.text.Text;
 import net.minecraft.text.MutableText;
 import net.minecraft.util.Formatting;
+import samethope.inventory_shuffle.config.InventoryShuffleConfig;
 import samethope.inventory_shuffle.data.ModState;
 import samethope.inventory_shuffle.data.ShuffleGroup;
 import samethope.inventory_shuffle.data.ShuffleOptions;
+import samethope.inventory_shuffle.data.StateView;
 import samethope.inventory_shuffle.utils.TextUtils;
 
-import java.util.Optional;
-import java.util.UUID;
-import java.util.List;
+import java.util.*;
 
 /**
  * Handles all group-related commands for the inventory shuffle mod
  */
 public class GroupCommands {
+  // Number of groups whose status pages are kept
+  private static final int STATUS_CACHE_SIZE = 8;
+
+  // Status pages of the groups shown most recently, by group name
+  private static final Map<String, StatusPages> statusPages = new LinkedHashMap<>(16, 0.75f, true) {
+    @Override
+    protected boolean removeEldestEntry(Map.Entry<String, StatusPages> eldest) {
+      return size() > STATUS_CACHE_SIZE;
+    }
+  };
+
+  /**
+   * The members of a group in the order they are listed, online players first,
+   * and the entries rendered for them so far. Valid while the membership stamp
+   * of the group is unchanged.
+   */
+  private static final class StatusPages {
+    private final long stamp;
+    private final UUID[] members;
+    private final MutableText[] entries;
+
+    private StatusPages(long stamp, UUID[] members) {
+      this.stamp = stamp;
+      this.members = members;
+      this.entries = new MutableText[members.length];
+    }
+
+    private int pageCount() {
+      return Math.max(1, (members.length + InventoryShuffleConfig.STATUS_PAGE_SIZE - 1)
+          / InventoryShuffleConfig.STATUS_PAGE_SIZE);
+    }
+  }
+
   public static int executeGroupCreateCommand(CommandContext<ServerCommandSource> context, String groupName) {
     if (groupName == null || groupName.trim().isEmpty()) {
       context.getSource().sendError(Text.literal("Group name cannot be empty."));
@@ -158,6 +193,7 @@ public class GroupCommands {
       case "shuffleHotbar" -> group.isShuffleHotbar();
       case "shuffleHand" -> group.isShuffleHand();
       case "shuffleOffhand" -> group.isShuffleOffhand();
+      case "spread" -> group.isSpread();
       default -> null;
     };
 
@@ -199,22 +235,8 @@ public class GroupCommands {
     }
 
     ShuffleGroup group = groupOpt.get();
-    List<UUID> playerUuids = ModState.getPlayersInGroup(groupName);
-
     MutableText content = Text.literal("");
-
-    // Add heading with enabled, interval and player count
-    content.append(TextUtils.getColoredText("Group ", Formatting.GOLD));
-    content.append(TextUtils.getColoredText("'" + groupName + "'", Formatting.YELLOW));
-    content.append(TextUtils.getColoredText(" (", Formatting.GRAY));
-    content.append(TextUtils.getColoredText(
-        group.isEnabled() ? "Enabled" : "Disabled",
-        group.isEnabled() ? Formatting.GREEN : Formatting.RED));
-    content.append(TextUtils.getColoredText(", Interval: ", Formatting.GRAY));
-    content.append(TextUtils.getColoredText(String.valueOf(group.getInterval()), Formatting.YELLOW));
-    content.append(TextUtils.getColoredText(" ticks, Players: ", Formatting.GRAY));
-    content.append(TextUtils.getColoredText(String.valueOf(playerUuids.size()), Formatting.YELLOW));
-    content.append(TextUtils.getColoredText(")", Formatting.GRAY));
+    content.append(createGroupHeading(ModState.getView().group(groupName).orElseThrow()));
 
     // Add shuffle options
     content.append(Text.literal("\n"));
@@ -242,8 +264,208 @@ public class GroupCommands {
     content.append(TextUtils.getColoredText(
         group.isShuffleOffhand() ? "Enabled" : "Disabled",
         group.isShuffleOffhand() ? Formatting.GREEN : Formatting.RED));
+    content.append(Text.literal("\n"));
+    content.append(TextUtils.getColoredText("  spread: ", Formatting.GRAY));
+    content.append(TextUtils.getColoredText(
+        group.isSpread() ? "Enabled" : "Disabled",
+        group.isSpread() ? Formatting.GREEN : Formatting.RED));
 
     context.getSource().sendFeedback(() -> content, false);
     return 1;
   }
+
+  /**
+   * Shows the options and player counts of one page of all groups
+   *
+   * @param page The page to show, starting at 1
+   */
+  public static int executeGroupListCommand(CommandContext<ServerCommandSource> context, int page) {
+    // Read from one view so the page shows the groups as they were at one time
+    StateView view = ModState.getView();
+    List<String> groupNames = view.groupNames();
+    if (groupNames.isEmpty()) {
+      context.getSource().sendFeedback(() -> TextUtils.getColoredText("No groups exist.", Formatting.GRAY), false);
+      return 0;
+    }
+
+    int pageCount = (groupNames.size() + InventoryShuffleConfig.STATUS_PAGE_SIZE - 1)
+        / InventoryShuffleConfig.STATUS_PAGE_SIZE;
+    if (page < 1 || page > pageCount) {
+      context.getSource().sendError(Text.literal("Page " + page + " does not exist, there "
+          + (pageCount == 1 ? "is 1 page" : "are " + pageCount + " pages") + " of groups."));
+      return 0;
+    }
+
+    MutableText content = TextUtils.getColoredText("All Groups", Formatting.GOLD);
+    content.append(TextUtils.getColoredText(" (", Formatting.GRAY));
+    content.append(TextUtils.getColoredText(String.valueOf(groupNames.size()), Formatting.YELLOW));
+    if (pageCount > 1) {
+      content.append(TextUtils.getColoredText(", page ", Formatting.GRAY));
+      content.append(TextUtils.getColoredText(String.valueOf(page), Formatting.YELLOW));
+      content.append(TextUtils.getColoredText(" of ", Formatting.GRAY));
+      content.append(TextUtils.getColoredText(String.valueOf(pageCount), Formatting.YELLOW));
+    }
+    content.append(TextUtils.getColoredText(")", Formatting.GRAY));
+
+    int start = (page - 1) * InventoryShuffleConfig.STATUS_PAGE_SIZE;
+    int end = Math.min(start + InventoryShuffleConfig.STATUS_PAGE_SIZE, groupNames.size());
+    boolean anyMembers = false;
+    for (String groupName : groupNames.subList(start, end)) {
+      Optional<StateView.GroupView> groupOpt = view.group(groupName);
+      if (groupOpt.isPresent()) {
+        content.append(Text.literal("\n"));
+        content.append(createGroupHeading(groupOpt.get()));
+        anyMembers |= ModState.getMemberCount(groupName) > 0;
+      }
+    }
+
+    if (page < pageCount) {
+      content.append(Text.literal("\n"));
+      content.append(TextUtils.getColoredText("Use /" + InventoryShuffleConfig.COMMAND_NAME + " group list "
+          + (page + 1) + " for the next page", Formatting.GRAY));
+    }
+    if (anyMembers) {
+      content.append(Text.literal("\n"));
+      content.append(TextUtils.getColoredText(
+          "Use /" + InventoryShuffleConfig.COMMAND_NAME + " group status <groupName> to list the players of a group",
+          Formatting.GRAY));
+    }
+
+    context.getSource().sendFeedback(() -> content, false);
+    return 1;
+  }
+
+  /**
+   * Shows the options of a group and one page of its players. Pages are rendered
+   * once and reused until the group's membership changes.
+   *
+   * @param page The page to show, starting at 1
+   */
+  public static int executeGroupStatusCommand(CommandContext<ServerCommandSource> context, String groupName,
+      int page) {
+    if (groupName == null || groupName.trim().isEmpty()) {
+      context.getSource().sendError(Text.literal("Group name cannot be empty."));
+      return 0;
+    }
+
+    Optional<StateView.GroupView> groupOpt = ModState.getView().group(groupName);
+    if (groupOpt.isEmpty()) {
+      context.getSource().sendError(Text.literal("No group named '" + groupName + "' exists."));
+      return 0;
+    }
+
+    StatusPages pages = getStatusPages(context.getSource().getServer(), groupName);
+    if (page < 1 || page > pages.pageCount()) {
+      context.getSource().sendError(Text.literal("Page " + page + " does not exist, group '" + groupName + "' has "
+          + pages.pageCount() + (pages.pageCount() == 1 ? " page." : " pages.")));
+      return 0;
+    }
+
+    MutableText content = Text.literal("");
+    content.append(createGroupHeading(groupOpt.get()));
+
+    if (pages.members.length > 0) {
+      ServerPlayerEntity viewer = context.getSource().isExecutedByPlayer() ? context.getSource().getPlayer() : null;
+      int start = (page - 1) * InventoryShuffleConfig.STATUS_PAGE_SIZE;
+      int end = Math.min(start + InventoryShuffleConfig.STATUS_PAGE_SIZE, pages.members.length);
+
+      content.append(Text.literal("\n"));
+      content.append(TextUtils.getColoredText("Players", Formatting.GRAY));
+      if (pages.pageCount() > 1) {
+        content.append(TextUtils.getColoredText(" (page ", Formatting.GRAY));
+        content.append(TextUtils.getColoredText(String.valueOf(page), Formatting.YELLOW));
+        content.append(TextUtils.getColoredText(" of ", Formatting.GRAY));
+        content.append(TextUtils.getColoredText(String.valueOf(pages.pageCount()), Formatting.YELLOW));
+        content.append(TextUtils.getColoredText(")", Formatting.GRAY));
+      }
+      content.append(TextUtils.getColoredText(": ", Formatting.GRAY));
+
+      for (int i = start; i < end; i++) {
+        if (i > start) {
+          content.append(TextUtils.getColoredText(", ", Formatting.GRAY));
+        }
+
+        if (viewer != null && viewer.getUuid().equals(pages.members[i])) {
+          content.append(TextUtils.getColoredText(viewer.getName().getString() + " (you)", Formatting.GRAY));
+        } else {
+          if (pages.entries[i] == null) {
+            pages.entries[i] = createPlayerEntry(context.getSource().getServer(), pages.members[i]);
+          }
+          content.append(pages.entries[i]);
+        }
+      }
+
+      if (page < pages.pageCount()) {
+        content.append(Text.literal("\n"));
+        content.append(TextUtils.getColoredText("Use /" + InventoryShuffleConfig.COMMAND_NAME + " group status "
+            + groupName + " " + (page + 1) + " for the next page", Formatting.GRAY));
+      }
+    }
+
+    context.getSource().sendFeedback(() -> content, false);
+    return 1;
+  }
+
+  /**
+   * Gets the status pages of a group, listing its members again if its
+   * membership changed since they were last listed
+   */
+  private static StatusPages getStatusPages(MinecraftServer server, String groupName) {
+    long stamp = ModState.getMembersStamp(groupName);
+    StatusPages pages = statusPages.get(groupName);
+    if (pages != null && pages.stamp == stamp) {
+      return pages;
+    }
+
+    List<UUID> uuids = ModState.getPlayersInGroup(groupName);
+    UUID[] members = new UUID[uuids.size()];
+    int online = 0;
+    int offline = members.length;
+    for (UUID uuid : uuids) {
+      if (server.getPlayerManager().getPlayer(uuid) != null) {
+        members[online++] = uuid;
+      } else {
+        members[--offline] = uuid;
+      }
+    }
+
+    pages = new StatusPages(stamp, members);
+    statusPages.put(groupName, pages);
+    return pages;
+  }
+
+  private static MutableText createPlayerEntry(MinecraftServer server, UUID uuid) {
+    ServerPlayerEntity player = server.getPlayerManager().getPlayer(uuid);
+    if (player != null) {
+      return TextUtils.getColoredText(player.getName().getString(), Formatting.GRAY);
+    }
+
+    String storedName = ModState.getPlayerName(uuid);
+    if (storedName != null) {
+      return TextUtils.getColoredText(storedName + " (offline)", Formatting.GRAY);
+    }
+    return TextUtils.getColoredText("[Offline: " + uuid.toString().substring(0, 8) + "...]", Formatting.GRAY);
+  }
+
+  /**
+   * Creates the heading of a group with its state, interval and player counts
+   */
+  private static MutableText createGroupHeading(StateView.GroupView group) {
+    MutableText heading = TextUtils.getColoredText("Group ", Formatting.GOLD);
+    heading.append(TextUtils.getColoredText("'" + group.name() + "'", Formatting.YELLOW));
+    heading.append(TextUtils.getColoredText(" (", Formatting.GRAY));
+    heading.append(TextUtils.getColoredText(
+        group.enabled() ? "Enabled" : "Disabled",
+        group.enabled() ? Formatting.GREEN : Formatting.RED));
+    heading.append(TextUtils.getColoredText(", Interval: ", Formatting.GRAY));
+    heading.append(TextUtils.getColoredText(String.valueOf(group.interval()), Formatting.YELLOW));
+    heading.append(TextUtils.getColoredText(" ticks, Players: ", Formatting.GRAY));
+    heading.append(TextUtils.getColoredText(String.valueOf(ModState.getMemberCount(group.name())),
+        Formatting.YELLOW));
+    heading.append(TextUtils.getColoredText(", Online: ", Formatting.GRAY));
+    heading.append(TextUtils.getColoredText(String.valueOf(ModState.getOnlineMemberCount(group.name())),
+        Formatting.YELLOW));
+    heading.append(TextUtils.getColoredText(")", Formatting.GRAY));
+    return heading;
+  }
 }
\ No newline at end of file
@@ -5,10 +5,11 @@ import com.mojang.brigadier.arguments.BoolArgumentType;
 import com.mojang.brigadier.arguments.IntegerArgumentType;
 import com.mojang.brigadier.arguments.StringArgumentType;
 import com.mojang.brigadier.context.CommandContext;
+import com.mojang.brigadier.suggestion.Suggestions;
+import com.mojang.brigadier.suggestion.SuggestionsBuilder;
 import com.mojang.brigadier.builder.LiteralArgumentBuilder;
 import net.minecraft.command.CommandRegistryAccess;
 import net.minecraft.command.argument.EntityArgumentType;
-import net.minecraft.server.MinecraftServer;
 import net.minecraft.server.command.CommandManager;
 import net.minecraft.server.command.ServerCommandSource;
 import net.minecraft.text.Text;
@@ -17,10 +18,11 @@ import net.minecraft.server.network.ServerPlayerEntity;
 import net.minecraft.util.Formatting;
 import samethope.inventory_shuffle.config.InventoryShuffleConfig;
 import samethope.inventory_shuffle.data.ModState;
-import samethope.inventory_shuffle.data.ShuffleGroup;
+import samethope.inventory_shuffle.data.StateView;
 import samethope.inventory_shuffle.utils.TextUtils;
 
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
 
 import static net.minecraft.server.command.CommandManager.argument;
 import static net.minecraft.server.command.CommandManager.literal;
@@ -41,23 +43,13 @@ public class InvShuffleCommand {
                         StringArgumentType.getString(context, "groupName")))))
             .then(literal("delete")
                 .then(argument("groupName", StringArgumentType.word())
-                    .suggests((context, builder) -> {
-                      for (String group : ModState.listGroups()) {
-                        builder.suggest(group);
-                      }
-                      return builder.buildFuture();
-                    })
+                    .suggests(InvShuffleCommand::suggestGroupNames)
                     .executes(context -> GroupCommands.executeGroupDeleteCommand(
                         context,
                         StringArgumentType.getString(context, "groupName")))))
             .then(literal("rename")
                 .then(argument("oldGroupName", StringArgumentType.word())
-                    .suggests((context, builder) -> {
-                      for (String group : ModState.listGroups()) {
-                        builder.suggest(group);
-                      }
-                      return builder.buildFuture();
-                    })
+                    .suggests(InvShuffleCommand::suggestGroupNames)
                     .then(argument("newGroupName", StringArgumentType.word())
                         .executes(context -> GroupCommands.executeGroupRenameCommand(
                             context,
@@ -65,12 +57,7 @@ public class InvShuffleCommand {
                             StringArgumentType.getString(context, "newGroupName"))))))
             .then(literal("options")
                 .then(argument("groupName", StringArgumentType.word())
-                    .suggests((context, builder) -> {
-                      for (String group : ModState.listGroups()) {
-                        builder.suggest(group);
-                      }
-                      return builder.buildFuture();
-                    })
+                    .suggests(InvShuffleCommand::suggestGroupNames)
                     .executes(context -> GroupCommands.executeGroupShowAllOptionsCommand(
                         context,
                         StringArgumentType.getString(context, "groupName")))
@@ -150,28 +137,41 @@ public class InvShuffleCommand {
                                 context,
                                 StringArgumentType.getString(context, "groupName"),
                                 "shuffleOffhand",
+                                BoolArgumentType.getBool(context, "value")))))
+                    .then(literal("spread")
+                        .executes(context -> GroupCommands.executeGroupShowOptionCommand(
+                            context,
+                            StringArgumentType.getString(context, "groupName"),
+                            "spread"))
+                        .then(argument("value", BoolArgumentType.bool())
+                            .executes(context -> GroupCommands.executeGroupOptionSetCommand(
+                                context,
+                                StringArgumentType.getString(context, "groupName"),
+                                "spread",
                                 BoolArgumentType.getBool(context, "value")))))))
+            .then(literal("list")
+                .executes(context -> GroupCommands.executeGroupListCommand(context, 1))
+                .then(argument("page", IntegerArgumentType.integer(1))
+                    .executes(context -> GroupCommands.executeGroupListCommand(
+                        context,
+                        IntegerArgumentType.getInteger(context, "page")))))
             .then(literal("status")
-                .executes(InvShuffleCommand::executeStatusCommand)
+                .executes(context -> GroupCommands.executeGroupListCommand(context, 1))
                 .then(argument("groupName", StringArgumentType.word())
-                    .suggests((context, builder) -> {
-                      for (String group : ModState.listGroups()) {
-                        builder.suggest(group);
-                      }
-                      return builder.buildFuture();
-                    })
-                    .executes(context -> InvShuffleCommand.executeStatusCommand(
+                    .suggests(InvShuffleCommand::suggestGroupNames)
+                    .executes(context -> GroupCommands.executeGroupStatusCommand(
                         context,
-                        StringArgumentType.getString(context, "groupName"))))))
+                        StringArgumentType.getString(context, "groupName"),
+                        1))
+                    .then(argument("page", IntegerArgumentType.integer(1))
+                        .executes(context -> GroupCommands.executeGroupStatusCommand(
+                            context,
+                            StringArgumentType.getString(context, "groupName"),
+                            IntegerArgumentType.getInteger(context, "page")))))))
         .then(literal("player")
             .then(literal("add")
                 .then(argument("groupName", StringArgumentType.word())
-                    .suggests((context, builder) -> {
-                      for (String group : ModState.listGroups()) {
-                        builder.suggest(group);
-                      }
-                      return builder.buildFuture();
-                    })
+                    .suggests(InvShuffleCommand::suggestGroupNames)
                     .executes(context -> PlayerCommands.executePlayerAddSelfCommand(
                         context,
                         StringArgumentType.getString(context, "groupName")))
@@ -183,25 +183,58 @@ public class InvShuffleCommand {
             .then(literal("remove")
                 .executes(PlayerCommands::executePlayerRemoveSelfCommand)
                 .then(argument("playerName", StringArgumentType.word())
+                    .suggests(InvShuffleCommand::suggestGroupedPlayerNames)
+                    .executes(context -> PlayerCommands.executePlayerRemoveByNameCommand(
+                        context,
+                        StringArgumentType.getString(context, "playerName"))))))
+        .then(literal("state")
+            .then(literal("export")
+                .then(argument("fileName", StringArgumentType.word())
+                    .executes(context -> StateCommands.executeStateExportCommand(
+                        context,
+                        StringArgumentType.getString(context, "fileName")))))
+            .then(literal("import")
+                .then(argument("fileName", StringArgumentType.word())
                     .suggests((context, builder) -> {
-                      for (ServerPlayerEntity player : context.getSource().getServer().getPlayerManager()
-                          .getPlayerList()) {
-                        if (ModState.getPlayerGroupName(player).isPresent()) {
-                          builder.suggest(player.getName().getString());
-                        }
+                      for (String fileName : StateCommands.listTransferFiles(context.getSource().getServer())) {
+                        builder.suggest(fileName);
                       }
-
-                      for (UUID playerUuid : ModState.getGroupedPlayerUuids()) {
-                        String name = ModState.getPlayerName(playerUuid);
-                        if (name != null) {
-                          builder.suggest(name);
-                        }
+                      return builder.buildFuture();
+                    })
+                    .executes(context -> StateCommands.executeStateImportCommand(
+                        context,
+                        StringArgumentType.getString(context, "fileName"),
+                        false))
+                    .then(literal("merge")
+                        .executes(context -> StateCommands.executeStateImportCommand(
+                            context,
+                            StringArgumentType.getString(context, "fileName"),
+                            false)))
+                    .then(literal("replace")
+                        .executes(context -> StateCommands.executeStateImportCommand(
+                            context,
+                            StringArgumentType.getString(context, "fileName"),
+                            true)))))
+            .then(literal("backup")
+                .executes(StateCommands::executeStateBackupCommand))
+            .then(literal("restore")
+                .then(argument("backupName", StringArgumentType.word())
+                    .suggests((context, builder) -> {
+                      for (String backupName : ModState.listBackups(context.getSource().getServer())) {
+                        builder.suggest(backupName);
                       }
                       return builder.buildFuture();
                     })
-                    .executes(context -> PlayerCommands.executePlayerRemoveByNameCommand(
+                    .executes(context -> StateCommands.executeStateRestoreCommand(
                         context,
-                        StringArgumentType.getString(context, "playerName"))))))
+                        StringArgumentType.getString(context, "backupName"))))))
+        .then(literal("stats")
+            .executes(StatsCommands::executeStatsCommand)
+            .then(argument("groupName", StringArgumentType.word())
+                .suggests(InvShuffleCommand::suggestGroupNames)
+                .executes(context -> StatsCommands.executeGroupStatsCommand(
+                    context,
+                    StringArgumentType.getString(context, "groupName")))))
         .then(literal("help")
             .executes(InvShuffleCommand::executeHelpCommand));
 
@@ -213,6 +246,42 @@ public class InvShuffleCommand {
         .redirect(dispatcher.getRoot().getChild(InventoryShuffleConfig.COMMAND_NAME)));
   }
 
+  /**
+   * Suggests the names of the groups that start with the typed text
+   */
+  private static CompletableFuture<Suggestions> suggestGroupNames(CommandContext<ServerCommandSource> context,
+      SuggestionsBuilder builder) {
+    for (String group : ModState.findGroups(builder.getRemaining(), InventoryShuffleConfig.MAX_SUGGESTIONS)) {
+      builder.suggest(group);
+    }
+    return builder.buildFuture();
+  }
+
+  /**
+   * Suggests the names of the online and cached grouped players that start with
+   * the typed text, sorted ignoring case. Memberships and cached names are read
+   * from the published view.
+   */
+  private static CompletableFuture<Suggestions> suggestGroupedPlayerNames(
+      CommandContext<ServerCommandSource> context, SuggestionsBuilder builder) {
+    String prefix = builder.getRemainingLowerCase();
+    StateView view = ModState.getView();
+    SortedSet<String> names = new TreeSet<>(String.CASE_INSENSITIVE_ORDER);
+    for (ServerPlayerEntity player : context.getSource().getServer().getPlayerManager().getPlayerList()) {
+      String name = player.getName().getString();
+      if (names.size() < InventoryShuffleConfig.MAX_SUGGESTIONS && name.toLowerCase(Locale.ROOT).startsWith(prefix)
+          && view.groupNameOf(player.getUuid()).isPresent()) {
+        names.add(name);
+      }
+    }
+    names.addAll(view.findPlayerNames(prefix, InventoryShuffleConfig.MAX_SUGGESTIONS - names.size()));
+
+    for (String name : names) {
+      builder.suggest(name);
+    }
+    return builder.buildFuture();
+  }
+
   private static int executeHelpCommand(CommandContext<ServerCommandSource> context) {
     context.getSource().sendFeedback(() -> createHelpText(context.getSource().isExecutedByPlayer()), false);
     return 1;
@@ -226,9 +295,15 @@ public class InvShuffleCommand {
             /invshuffle group delete <groupName>
             /invshuffle group rename <oldGroupName> <newGroupName>
             /invshuffle group options <groupName> [<option> [<value>]]
-            /invshuffle group status [groupName]
+            /invshuffle group list [page]
+            /invshuffle group status [groupName [page]]
             /invshuffle player add <groupName> [players]
             /invshuffle player remove [playerName]
+            /invshuffle state export <fileName>
+            /invshuffle state import <fileName> [merge|replace]
+            /invshuffle state backup
+            /invshuffle state restore <backupName>
+            /invshuffle stats [groupName]
             /invshuffle help
             """,
         Formatting.YELLOW);
@@ -250,146 +325,4 @@ public class InvShuffleCommand {
         .append(TextUtils.getColoredText("For usage details, visit ", Formatting.GRAY))
         .append(githubText);
   }
-
-  private static int executeStatusCommand(CommandContext<ServerCommandSource> context) {
-    return executeStatusCommand(context, null);
-  }
-
-  private static int executeStatusCommand(CommandContext<ServerCommandSource> context, String groupName) {
-    List<String> groups = ModState.listGroups();
-    if (groups.isEmpty()) {
-      context.getSource().sendFeedback(() -> TextUtils.getColoredText("No groups exist.", Formatting.GRAY), false);
-      return 0;
-    }
-
-    if (groupName != null && !groups.contains(groupName)) {
-      context.getSource().sendError(Text.literal("No group named '" + groupName + "' exists."));
-      return 0;
-    }
-
-    MinecraftServer server = context.getSource().getServer();
-    MutableText content = Text.literal("");
-
-    if (groupName != null) {
-      Optional<ShuffleGroup> groupOpt = ModState.getGroup(groupName);
-      if (groupOpt.isPresent()) {
-        ShuffleGroup group = groupOpt.get();
-        List<UUID> playerUuids = ModState.getPlayersInGroup(groupName);
-
-        content.append(TextUtils.getColoredText("Group ", Formatting.GOLD));
-        content.append(TextUtils.getColoredText("'" + groupName + "'", Formatting.YELLOW));
-        content.append(TextUtils.getColoredText(" (", Formatting.GRAY));
-        content.append(TextUtils.getColoredText(
-            group.isEnabled() ? "Enabled" : "Disabled",
-            group.isEnabled() ? Formatting.GREEN : Formatting.RED));
-        content.append(TextUtils.getColoredText(", Interval: ", Formatting.GRAY));
-        content.append(TextUtils.getColoredText(String.valueOf(group.getInterval()), Formatting.YELLOW));
-        content.append(TextUtils.getColoredText(" ticks, Players: ", Formatting.GRAY));
-        content.append(TextUtils.getColoredText(String.valueOf(playerUuids.size()), Formatting.YELLOW));
-        content.append(TextUtils.getColoredText(")", Formatting.GRAY));
-
-        if (!playerUuids.isEmpty()) {
-          content.append(Text.literal("\n"));
-          content.append(TextUtils.getColoredText("Players: ", Formatting.GRAY));
-
-          for (int i = 0; i < playerUuids.size(); i++) {
-            if (i > 0) {
-              content.append(TextUtils.getColoredText(", ", Formatting.GRAY));
-            }
-
-            UUID uuid = playerUuids.get(i);
-            ServerPlayerEntity player = server.getPlayerManager().getPlayer(uuid);
-            String playerName;
-            boolean isCurrentPlayer = context.getSource().isExecutedByPlayer() &&
-                context.getSource().getPlayer() != null &&
-                context.getSource().getPlayer().getUuid().equals(uuid);
-
-            if (player != null) {
-              playerName = player.getName().getString();
-              if (isCurrentPlayer) {
-                playerName += " (you)";
-              }
-            } else {
-              String storedName = ModState.getPlayerName(uuid);
-              if (storedName != null) {
-                playerName = storedName + " (offline)";
-              } else {
-                playerName = "[Offline: " + uuid.toString().substring(0, 8) + "...]";
-              }
-            }
-
-            content.append(TextUtils.getColoredText(playerName, Formatting.GRAY));
-          }
-        }
-      }
-    } else {
-      content.append(TextUtils.getColoredText("All Groups", Formatting.GOLD));
-      content.append(TextUtils.getColoredText(" (", Formatting.GRAY));
-      content.append(TextUtils.getColoredText(String.valueOf(groups.size()), Formatting.YELLOW));
-      content.append(TextUtils.getColoredText(")", Formatting.GRAY));
-
-      boolean first = true;
-      for (String currentGroupName : groups) {
-        Optional<ShuffleGroup> groupOpt = ModState.getGroup(currentGroupName);
-        if (groupOpt.isPresent()) {
-          ShuffleGroup group = groupOpt.get();
-          List<UUID> playerUuids = ModState.getPlayersInGroup(currentGroupName);
-
-          content.append(Text.literal("\n"));
-          if (first) {
-            first = false;
-          }
-
-          content.append(TextUtils.getColoredText("Group ", Formatting.GOLD));
-          content.append(TextUtils.getColoredText("'" + currentGroupName + "'", Formatting.YELLOW));
-          content.append(TextUtils.getColoredText(" (", Formatting.GRAY));
-          content.append(TextUtils.getColoredText(
-              group.isEnabled() ? "Enabled" : "Disabled",
-              group.isEnabled() ? Formatting.GREEN : Formatting.RED));
-          content.append(TextUtils.getColoredText(", Interval: ", Formatting.GRAY));
-          content.append(TextUtils.getColoredText(String.valueOf(group.getInterval()), Formatting.YELLOW));
-          content.append(TextUtils.getColoredText(" ticks, Players: ", Formatting.GRAY));
-          content.append(TextUtils.getColoredText(String.valueOf(playerUuids.size()), Formatting.YELLOW));
-          content.append(TextUtils.getColoredText(")", Formatting.GRAY));
-
-          if (!playerUuids.isEmpty()) {
-            content.append(Text.literal("\n"));
-            content.append(TextUtils.getColoredText("Players: ", Formatting.GRAY));
-
-            for (int i = 0; i < playerUuids.size(); i++) {
-              if (i > 0) {
-                content.append(TextUtils.getColoredText(", ", Formatting.GRAY));
-              }
-
-              UUID uuid = playerUuids.get(i);
-              ServerPlayerEntity player = server.getPlayerManager().getPlayer(uuid);
-              String playerName;
-              boolean isCurrentPlayer = context.getSource().isExecutedByPlayer() &&
-                  context.getSource().getPlayer() != null &&
-                  context.getSource().getPlayer().getUuid().equals(uuid);
-
-              if (player != null) {
-                playerName = player.getName().getString();
-                if (isCurrentPlayer) {
-                  playerName += " (you)";
-                }
-              } else {
-                String storedName = ModState.getPlayerName(uuid);
-                if (storedName != null) {
-                  playerName = storedName + " (offline)";
-                } else {
-                  playerName = "[Offline: " + uuid.toString().substring(0, 8) + "...]";
-                }
-              }
-
-              content.append(TextUtils.getColoredText(playerName, Formatting.GRAY));
-            }
-          }
-        }
-      }
-    }
-
-    context.getSource().sendFeedback(() -> content, false);
-    return 1;
-  }
 }
\ No newline at end of file
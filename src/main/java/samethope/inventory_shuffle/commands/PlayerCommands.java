@@ -11,6 +11,7 @@ import samethope.inventory_shuffle.data.ModState;
 import samethope.inventory_shuffle.utils.TextUtils;
 
 import java.util.Collection;
+import java.util.List;
 import java.util.Optional;
 import java.util.UUID;
 import java.util.concurrent.atomic.AtomicInteger;
@@ -125,7 +126,7 @@ public class PlayerCommands {
   }
 
   /**
-   * Removes a player from their group by name
+   * Removes a player from their group by name or UUID
    */
   public static int executePlayerRemoveByNameCommand(CommandContext<ServerCommandSource> context, String playerName) {
     if (playerName == null || playerName.trim().isEmpty()) {
@@ -133,53 +134,19 @@ public class PlayerCommands {
       return 0;
     }
 
-    MinecraftServer server = context.getSource().getServer();
-    String groupName = null;
-    boolean removed = false;
-
-    // First check if this is an online player
-    ServerPlayerEntity onlinePlayer = null;
-    for (ServerPlayerEntity player : server.getPlayerManager().getPlayerList()) {
-      if (player != null && player.getName().getString().equals(playerName)) {
-        onlinePlayer = player;
-        break;
-      }
-    }
-
-    if (onlinePlayer != null) {
-      // Online player found
-      Optional<String> currentGroup = ModState.getPlayerGroupName(onlinePlayer);
-      if (currentGroup.isPresent()) {
-        groupName = currentGroup.get();
-        removed = ModState.removePlayer(onlinePlayer);
-      } else {
-        context.getSource().sendError(Text.literal("Player '" + playerName + "' is not in any group."));
-        return 0;
-      }
-    } else {
-      // Try offline players
-      for (UUID uuid : ModState.getGroupedPlayerUuids()) {
-        if (uuid == null) {
-          continue;
-        }
-
-        String storedName = ModState.getPlayerName(uuid);
-        if (storedName != null && storedName.equalsIgnoreCase(playerName)) {
-          Optional<String> currentGroup = ModState.getPlayerGroupName(uuid);
-          if (currentGroup.isPresent()) {
-            groupName = currentGroup.get();
-            removed = ModState.removePlayerByUuid(uuid);
-          }
-          break;
-        }
-      }
+    UUID uuid = resolveGroupedPlayer(context, playerName);
+    if (uuid == null) {
+      return 0;
     }
 
-    if (removed) {
+    Optional<String> currentGroup = ModState.getPlayerGroupName(uuid);
+    String storedName = ModState.getPlayerName(uuid);
+    if (currentGroup.isPresent() && ModState.removePlayerByUuid(uuid)) {
       MutableText text = TextUtils.getColoredText("Removed player ", Formatting.GOLD);
-      text.append(TextUtils.getColoredText("'" + playerName + "'", Formatting.YELLOW));
+      text.append(TextUtils.getColoredText("'" + (storedName != null ? storedName : playerName) + "'",
+          Formatting.YELLOW));
       text.append(TextUtils.getColoredText(" from group ", Formatting.GOLD));
-      text.append(TextUtils.getColoredText("'" + groupName + "'", Formatting.YELLOW));
+      text.append(TextUtils.getColoredText("'" + currentGroup.get() + "'", Formatting.YELLOW));
       context.getSource().sendFeedback(() -> text, true);
       return 1;
     } else {
@@ -188,6 +155,62 @@ public class PlayerCommands {
     }
   }
 
+  /**
+   * Resolves a player name or UUID to the UUID of a grouped player, sending an
+   * error if there is no such player or the name is ambiguous
+   *
+   * @return The UUID of the player, or null if it could not be resolved
+   */
+  private static UUID resolveGroupedPlayer(CommandContext<ServerCommandSource> context, String playerName) {
+    if (playerName.length() == 36) {
+      try {
+        UUID uuid = UUID.fromString(playerName);
+        if (ModState.getPlayerGroupName(uuid).isEmpty()) {
+          context.getSource().sendError(Text.literal("Player '" + playerName + "' is not in any group."));
+          return null;
+        }
+        return uuid;
+      } catch (IllegalArgumentException e) {
+        // Not a UUID, look it up as a name
+      }
+    }
+
+    List<UUID> uuids = ModState.findGroupedPlayersByName(playerName);
+    if (uuids.size() == 1) {
+      return uuids.get(0);
+    }
+
+    MinecraftServer server = context.getSource().getServer();
+    if (uuids.isEmpty()) {
+      if (server.getPlayerManager().getPlayer(playerName) != null) {
+        context.getSource().sendError(Text.literal("Player '" + playerName + "' is not in any group."));
+      } else {
+        context.getSource().sendError(Text.literal("Could not find player '" + playerName + "' in any group."));
+      }
+      return null;
+    }
+
+    // Several players were cached with this name because some of them renamed
+    // since, an online player with the name is the only one certain to have it
+    for (UUID uuid : uuids) {
+      ServerPlayerEntity player = server.getPlayerManager().getPlayer(uuid);
+      if (player != null && player.getName().getString().equalsIgnoreCase(playerName)) {
+        return uuid;
+      }
+    }
+
+    StringBuilder message = new StringBuilder("Several grouped players were last seen as '" + playerName + "': ");
+    for (int i = 0; i < uuids.size(); i++) {
+      if (i > 0) {
+        message.append(", ");
+      }
+      message.append(uuids.get(i));
+    }
+    message.append(". Remove one of them by UUID instead.");
+    context.getSource().sendError(Text.literal(message.toString()));
+    return null;
+  }
+
   /**
    * Removes the command issuer from their group
    */
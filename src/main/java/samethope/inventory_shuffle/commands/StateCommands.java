@@ -0,0 +1,205 @@
+package samethope.inventory_shuffle.commands;
+
+import com.mojang.brigadier.context.CommandContext;
+import net.minecraft.server.MinecraftServer;
+import net.minecraft.server.command.ServerCommandSource;
+import net.minecraft.text.MutableText;
+import net.minecraft.text.Text;
+import net.minecraft.util.Formatting;
+import net.minecraft.util.WorldSavePath;
+import samethope.inventory_shuffle.InventoryShuffle;
+import samethope.inventory_shuffle.config.InventoryShuffleConfig;
+import samethope.inventory_shuffle.data.ModState;
+import samethope.inventory_shuffle.services.StateTransfer;
+import samethope.inventory_shuffle.utils.CachedListing;
+import samethope.inventory_shuffle.utils.TextUtils;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletionException;
+import java.util.stream.Stream;
+
+/**
+ * Handles all state-related commands for the inventory shuffle mod
+ */
+public class StateCommands {
+  private static final CachedListing transferFiles = new CachedListing(StateCommands::readTransferFiles);
+
+  /**
+   * Starts exporting all groups and players to a file in the transfer folder
+   */
+  public static int executeStateExportCommand(CommandContext<ServerCommandSource> context, String fileName) {
+    Path path = resolveTransferFile(context, fileName);
+    if (path == null || !checkNoTransferRunning(context)) {
+      return 0;
+    }
+
+    try {
+      StateTransfer.startExport(context.getSource(), path);
+    } catch (IOException e) {
+      InventoryShuffle.LOGGER.error("Failed to start export to {}: {}", path, e.getMessage(), e);
+      context.getSource().sendError(Text.literal("Could not create '" + fileName + "': " + e.getMessage()));
+      return 0;
+    }
+
+    MutableText text = TextUtils.getColoredText("Exporting to ", Formatting.GOLD);
+    text.append(TextUtils.getColoredText("'" + fileName + "'", Formatting.YELLOW));
+    text.append(TextUtils.getColoredText("...", Formatting.GOLD));
+    context.getSource().sendFeedback(() -> text, true);
+    return 1;
+  }
+
+  /**
+   * Starts importing groups and players from a file in the transfer folder
+   *
+   * @param replace Whether to remove all existing groups and players first
+   */
+  public static int executeStateImportCommand(CommandContext<ServerCommandSource> context, String fileName,
+      boolean replace) {
+    Path path = resolveTransferFile(context, fileName);
+    if (path == null || !checkNoTransferRunning(context)) {
+      return 0;
+    }
+
+    if (!Files.isRegularFile(path)) {
+      context.getSource().sendError(Text.literal("No file named '" + fileName + "' exists in the "
+          + InventoryShuffleConfig.TRANSFER_DIRECTORY + " folder."));
+      return 0;
+    }
+
+    try {
+      StateTransfer.startImport(context.getSource(), path, replace);
+    } catch (IOException e) {
+      InventoryShuffle.LOGGER.error("Failed to start import from {}: {}", path, e.getMessage(), e);
+      context.getSource().sendError(Text.literal("Could not read '" + fileName + "': " + e.getMessage()));
+      return 0;
+    }
+
+    MutableText text = TextUtils.getColoredText(replace ? "Replacing all groups with " : "Importing ",
+        Formatting.GOLD);
+    text.append(TextUtils.getColoredText("'" + fileName + "'", Formatting.YELLOW));
+    text.append(TextUtils.getColoredText("...", Formatting.GOLD));
+    context.getSource().sendFeedback(() -> text, true);
+    return 1;
+  }
+
+  /**
+   * Backs up the state now instead of waiting for the next automatic backup
+   */
+  public static int executeStateBackupCommand(CommandContext<ServerCommandSource> context) {
+    if (!ModState.backup(context.getSource().getServer())) {
+      context.getSource().sendFeedback(
+          () -> TextUtils.getColoredText("Nothing changed since the last backup.", Formatting.GRAY), false);
+      return 0;
+    }
+
+    context.getSource().sendFeedback(() -> TextUtils.getColoredText("Backing up the state...", Formatting.GOLD),
+        true);
+    return 1;
+  }
+
+  /**
+   * Replaces the state with a backup. The backup is read in the background and
+   * applied on the server thread once it is ready.
+   */
+  public static int executeStateRestoreCommand(CommandContext<ServerCommandSource> context, String backupName) {
+    if (backupName == null || backupName.trim().isEmpty()) {
+      context.getSource().sendError(Text.literal("Backup name cannot be empty."));
+      return 0;
+    }
+    if (!checkNoTransferRunning(context)) {
+      return 0;
+    }
+
+    ServerCommandSource source = context.getSource();
+    MinecraftServer server = source.getServer();
+    ModState.readBackup(server, backupName).whenComplete((snapshot, error) -> server.execute(() -> {
+      if (error != null) {
+        Throwable cause = error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+        if (cause instanceof UncheckedIOException && cause.getCause() != null) {
+          cause = cause.getCause();
+        }
+        InventoryShuffle.LOGGER.error("Failed to restore backup {}: {}", backupName, cause.getMessage(), cause);
+        source.sendError(Text.literal("Could not restore backup '" + backupName + "': " + cause.getMessage()));
+        return;
+      }
+      if (StateTransfer.isRunning()) {
+        source.sendError(Text.literal("An export or import started while the backup was read, try again later."));
+        return;
+      }
+
+      ModState.restoreSnapshot(server, snapshot);
+      ModState.saveToNbt(server, true, false);
+
+      MutableText text = TextUtils.getColoredText("Restored backup ", Formatting.GOLD);
+      text.append(TextUtils.getColoredText("'" + backupName + "'", Formatting.YELLOW));
+      text.append(TextUtils.getColoredText(" (", Formatting.GRAY));
+      text.append(TextUtils.getColoredText(String.valueOf(snapshot.groups().size()), Formatting.YELLOW));
+      text.append(TextUtils.getColoredText(" groups, ", Formatting.GRAY));
+      text.append(TextUtils.getColoredText(String.valueOf(snapshot.memberCount()), Formatting.YELLOW));
+      text.append(TextUtils.getColoredText(" players)", Formatting.GRAY));
+      source.sendFeedback(() -> text, true);
+    }));
+
+    context.getSource().sendFeedback(() -> TextUtils.getColoredText("Reading backup...", Formatting.GRAY), false);
+    return 1;
+  }
+
+  /**
+   * Lists the files in the transfer folder, reusing the listing for a few
+   * seconds
+   */
+  public static List<String> listTransferFiles(MinecraftServer server) {
+    return transferFiles.get(getTransferDirectory(server));
+  }
+
+  private static List<String> readTransferFiles(Path directory) {
+    List<String> fileNames = new ArrayList<>();
+    if (!Files.isDirectory(directory)) {
+      return fileNames;
+    }
+
+    try (Stream<Path> files = Files.list(directory)) {
+      files.filter(Files::isRegularFile).forEach(file -> fileNames.add(file.getFileName().toString()));
+    } catch (IOException e) {
+      InventoryShuffle.LOGGER.warn("Failed to list {}: {}", directory, e.getMessage());
+    }
+    return fileNames;
+  }
+
+  private static boolean checkNoTransferRunning(CommandContext<ServerCommandSource> context) {
+    if (StateTransfer.isRunning()) {
+      context.getSource().sendError(Text.literal("Another export or import is still running."));
+      return false;
+    }
+    return true;
+  }
+
+  /**
+   * Resolves a file name inside the transfer folder
+   *
+   * @return The path of the file, or null if the name would leave the folder
+   */
+  private static Path resolveTransferFile(CommandContext<ServerCommandSource> context, String fileName) {
+    if (fileName == null || fileName.trim().isEmpty()) {
+      context.getSource().sendError(Text.literal("File name cannot be empty."));
+      return null;
+    }
+
+    Path directory = getTransferDirectory(context.getSource().getServer()).normalize();
+    Path path = directory.resolve(fileName).normalize();
+    if (!directory.equals(path.getParent())) {
+      context.getSource().sendError(Text.literal("Invalid file name '" + fileName + "'."));
+      return null;
+    }
+    return path;
+  }
+
+  private static Path getTransferDirectory(MinecraftServer server) {
+    return server.getSavePath(WorldSavePath.ROOT).resolve(InventoryShuffleConfig.TRANSFER_DIRECTORY);
+  }
+}
@@ -0,0 +1,114 @@
+package samethope.inventory_shuffle.commands;
+
+import com.mojang.brigadier.context.CommandContext;
+import net.minecraft.server.command.ServerCommandSource;
+import net.minecraft.text.MutableText;
+import net.minecraft.text.Text;
+import net.minecraft.util.Formatting;
+import samethope.inventory_shuffle.data.ModState;
+import samethope.inventory_shuffle.data.ShuffleGroup;
+import samethope.inventory_shuffle.services.ShuffleMetrics;
+import samethope.inventory_shuffle.utils.TextUtils;
+
+import java.util.Locale;
+import java.util.Optional;
+
+/**
+ * Handles all metrics-related commands for the inventory shuffle mod
+ */
+public class StatsCommands {
+
+  /**
+   * Shows the shuffle counters of all groups together along with tick, save and
+   * load timings
+   */
+  public static int executeStatsCommand(CommandContext<ServerCommandSource> context) {
+    MutableText content = TextUtils.getColoredText("Inventory Shuffle Stats", Formatting.GOLD);
+    content.append(TextUtils.getColoredText(" (last " + formatUptime(ShuffleMetrics.getUptimeNanos()) + ")",
+        Formatting.GRAY));
+    appendCounters(content, ShuffleMetrics.getTotal());
+    appendTimes(content, "Tick time", ShuffleMetrics.getTickTime());
+    appendTimes(content, "Save time", ShuffleMetrics.getSaveTime());
+    appendTimes(content, "Write time", ShuffleMetrics.getWriteTime());
+    appendTimes(content, "Load time", ShuffleMetrics.getLoadTime());
+
+    context.getSource().sendFeedback(() -> content, false);
+    return 1;
+  }
+
+  /**
+   * Shows the shuffle counters of a group since it was created or the server
+   * started
+   */
+  public static int executeGroupStatsCommand(CommandContext<ServerCommandSource> context, String groupName) {
+    if (groupName == null || groupName.trim().isEmpty()) {
+      context.getSource().sendError(Text.literal("Group name cannot be empty."));
+      return 0;
+    }
+
+    Optional<ShuffleGroup> groupOpt = ModState.getGroup(groupName);
+    if (groupOpt.isEmpty()) {
+      context.getSource().sendError(Text.literal("No group named '" + groupName + "' exists."));
+      return 0;
+    }
+
+    MutableText content = TextUtils.getColoredText("Stats of group ", Formatting.GOLD);
+    content.append(TextUtils.getColoredText("'" + groupName + "'", Formatting.YELLOW));
+    appendCounters(content, ShuffleMetrics.getGroup(groupOpt.get().getId()));
+
+    context.getSource().sendFeedback(() -> content, false);
+    return 1;
+  }
+
+  private static void appendCounters(MutableText content, ShuffleMetrics.Counters counters) {
+    content.append(Text.literal("\n"));
+    content.append(TextUtils.getColoredText("Shuffles: ", Formatting.GRAY));
+    content.append(TextUtils.getColoredText(String.valueOf(counters.shuffles()), Formatting.YELLOW));
+    content.append(TextUtils.getColoredText(", Items moved: ", Formatting.GRAY));
+    content.append(TextUtils.getColoredText(String.valueOf(counters.itemsMoved()), Formatting.YELLOW));
+    content.append(TextUtils.getColoredText(", Empty slots moved: ", Formatting.GRAY));
+    content.append(TextUtils.getColoredText(String.valueOf(counters.emptySlotsMoved()), Formatting.YELLOW));
+    appendTimes(content, "Shuffle time", counters.shuffleTime());
+  }
+
+  /**
+   * Appends a line with the count, percentiles and maximum of a histogram
+   */
+  private static void appendTimes(MutableText content, String label, ShuffleMetrics.Histogram histogram) {
+    content.append(Text.literal("\n"));
+    content.append(TextUtils.getColoredText(label + ": ", Formatting.GRAY));
+    if (histogram.count() == 0) {
+      content.append(TextUtils.getColoredText("none recorded", Formatting.GRAY));
+      return;
+    }
+
+    content.append(TextUtils.getColoredText("p50 ", Formatting.GRAY));
+    content.append(TextUtils.getColoredText(formatNanos(histogram.percentile(50)), Formatting.YELLOW));
+    content.append(TextUtils.getColoredText(", p99 ", Formatting.GRAY));
+    content.append(TextUtils.getColoredText(formatNanos(histogram.percentile(99)), Formatting.YELLOW));
+    content.append(TextUtils.getColoredText(", max ", Formatting.GRAY));
+    content.append(TextUtils.getColoredText(formatNanos(histogram.max()), Formatting.YELLOW));
+    content.append(TextUtils.getColoredText(", mean ", Formatting.GRAY));
+    content.append(TextUtils.getColoredText(formatNanos(histogram.mean()), Formatting.YELLOW));
+    content.append(TextUtils.getColoredText(" (" + histogram.count() + " recorded)", Formatting.GRAY));
+  }
+
+  private static String formatNanos(long nanos) {
+    if (nanos < 1_000L) {
+      return nanos + " ns";
+    } else if (nanos < 1_000_000L) {
+      return String.format(Locale.ROOT, "%.1f \u00b5s", nanos / 1_000.0);
+    } else if (nanos < 1_000_000_000L) {
+      return String.format(Locale.ROOT, "%.1f ms", nanos / 1_000_000.0);
+    }
+    return String.format(Locale.ROOT, "%.2f s", nanos / 1_000_000_000.0);
+  }
+
+  private static String formatUptime(long nanos) {
+    long minutes = nanos / 60_000_000_000L;
+    if (minutes < 60) {
+      return minutes + " min";
+    }
+    return minutes / 60 + " h " + minutes % 60 + " min";
+  }
+}
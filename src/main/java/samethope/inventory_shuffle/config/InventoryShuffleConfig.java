@@ -8,6 +8,13 @@ public class InventoryShuffleConfig {
   public static final String COMMAND_NAME = "invshuffle";
   public static final String COMMAND_ALIAS = "shuffleinv";
   public static final int COMMAND_PERMISSION_LEVEL = 4;
+  // Maximum number of group or player names suggested while typing a command
+  public static final int MAX_SUGGESTIONS = 50;
+  // Number of players listed per page of a group's status
+  public static final int STATUS_PAGE_SIZE = 20;
+  // Seconds the suggested transfer files and backups are reused before their
+  // folder is listed again
+  public static final int SUGGESTION_LISTING_SECONDS = 5;
 
   // Default group options
   public static final String DEFAULT_GROUP_NAME = "default";
@@ -18,9 +25,52 @@ public class InventoryShuffleConfig {
   public static final boolean DEFAULT_SHUFFLE_HOTBAR = true;
   public static final boolean DEFAULT_SHUFFLE_HAND = false;
   public static final boolean DEFAULT_SHUFFLE_OFFHAND = false;
+  public static final boolean DEFAULT_SPREAD = false;
+
+  // Sync options
+  // Shuffles that change at least this many slots resync the whole inventory in
+  // one packet instead of one slot update packet per changed slot
+  public static final int BATCH_SYNC_THRESHOLD = 8;
+
+  // Name cache options
+  // Number of offline player names kept in memory, names that are evicted are
+  // looked up in the server's user cache when needed
+  public static final int PLAYER_NAME_CACHE_SIZE = 1024;
+
+  // Transfer options
+  // Folder in the world folder that state exports are written to and imports
+  // are read from
+  public static final String TRANSFER_DIRECTORY = "inventory-shuffle-transfers";
+  // Records exported or imported per tick, and how many records pass between
+  // progress messages
+  public static final int TRANSFER_RECORDS_PER_TICK = 1000;
+  public static final int TRANSFER_PROGRESS_INTERVAL = 50_000;
+
+  // Backup options
+  // Folder in the world folder that backups are written to
+  public static final String BACKUP_DIRECTORY = "inventory-shuffle-backups";
+  // Minutes between automatic backups, which are taken when the world saves and
+  // skipped if nothing changed. 0 disables automatic backups.
+  public static final int BACKUP_INTERVAL_MINUTES = 30;
+  // Number of backups kept
+  public static final int BACKUP_COUNT = 12;
+  // Backups per chain: the first backup of a chain holds the full state, the
+  // rest only the changes since the backup before
+  public static final int BACKUP_CHAIN_LENGTH = 6;
 
   // File options
   public static final String SAVE_FILE_EXTENSION = ".dat";
+  public static final String JOURNAL_FILE_EXTENSION = ".journal";
+  // Whether to save the state as a directory with a manifest and one shard file
+  // per group instead of a single file, so a save only rewrites the groups that
+  // changed. Existing state in the other layout is converted on the next save.
+  public static final boolean SHARDED_STATE = false;
+  // Whether the body of the binary state file is deflate compressed
+  public static final boolean COMPRESS_STATE_FILE = true;
+  // Changes are appended to the journal at the end of each tick until it grows
+  // past this many bytes, then the next save writes the full state and resets
+  // the journal
+  public static final long JOURNAL_COMPACTION_THRESHOLD = 1L << 20;
 
   // Debug options
   public static final boolean DEBUG_LOG_ENABLED = false;
@@ -0,0 +1,164 @@
+package samethope.inventory_shuffle.data;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Layout of incremental backups.
+ * <p>
+ * Backups form chains. The first backup of a chain is a full snapshot in the
+ * layout of the state file, every later one is a delta holding the groups as of
+ * the backup and only the members that were added, moved or removed since the
+ * previous backup of the chain. Each delta also stores the version of the
+ * backup it applies to, so a chain with a missing link is detected instead of
+ * restoring wrong state.
+ */
+public final class BackupFormat {
+  public static final int DELTA_MAGIC = 0x49534844; // "ISHD"
+  public static final int FORMAT_VERSION = 1;
+
+  private BackupFormat() {
+  }
+
+  /**
+   * Writes the difference between two snapshots
+   *
+   * @param previous The snapshot of the previous backup
+   * @param current  The snapshot to back up
+   * @param out      Stream to write to, not closed
+   * @param compress Whether to deflate compress the body
+   * @return The number of members that changed
+   */
+  public static int writeDelta(StateSnapshot previous, StateSnapshot current, OutputStream out, boolean compress)
+      throws IOException {
+    // Members left in the previous table after taking out every current member
+    // were removed
+    UuidIntMap removed = toTable(previous);
+    long[] uuids = current.memberUuids();
+    int[] groupIds = current.memberGroupIds();
+    int[] changed = new int[16];
+    int changedCount = 0;
+    for (int i = 0; i < current.memberCount(); i++) {
+      if (removed.remove(uuids[2 * i], uuids[2 * i + 1]) != groupIds[i]) {
+        if (changedCount == changed.length) {
+          changed = Arrays.copyOf(changed, 2 * changedCount);
+        }
+        changed[changedCount++] = i;
+      }
+    }
+
+    try (DataOutputStream body = StateFormat.openBody(out, DELTA_MAGIC, FORMAT_VERSION, compress)) {
+      body.writeLong(previous.version());
+      body.writeLong(current.version());
+
+      body.writeInt(current.groups().size());
+      for (StateSnapshot.GroupEntry group : current.groups()) {
+        body.writeInt(group.id());
+        body.writeUTF(group.name());
+        body.writeBoolean(group.enabled());
+        body.writeInt(group.interval());
+        body.writeByte(group.optionFlags());
+        body.writeInt(group.ticksLeft());
+      }
+
+      body.writeInt(removed.size());
+      IOException[] failure = { null };
+      removed.forEach((mostBits, leastBits, groupId) -> {
+        try {
+          body.writeLong(mostBits);
+          body.writeLong(leastBits);
+        } catch (IOException e) {
+          failure[0] = e;
+        }
+      });
+      if (failure[0] != null) {
+        throw failure[0];
+      }
+
+      body.writeInt(changedCount);
+      for (int j = 0; j < changedCount; j++) {
+        int i = changed[j];
+        body.writeLong(uuids[2 * i]);
+        body.writeLong(uuids[2 * i + 1]);
+        body.writeInt(groupIds[i]);
+      }
+    }
+    return removed.size() + changedCount;
+  }
+
+  /**
+   * Rebuilds the state of a backup from the full snapshot its chain starts with
+   * and the deltas up to it
+   *
+   * @param basePath   The full snapshot of the chain
+   * @param deltaPaths The deltas of the chain up to the backup, oldest first
+   */
+  public static StateSnapshot readChain(Path basePath, List<Path> deltaPaths) throws IOException {
+    StateSnapshot base = StateFormat.read(basePath);
+    if (base == null) {
+      throw new IOException("Backup " + basePath.getFileName() + " holds no valid state");
+    }
+
+    UuidIntMap members = toTable(base);
+    long version = base.version();
+    List<StateSnapshot.GroupEntry> groups = base.groups();
+    for (Path deltaPath : deltaPaths) {
+      try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(deltaPath)))) {
+        if (in.readInt() != DELTA_MAGIC) {
+          throw new IOException("Not a backup delta: " + deltaPath.getFileName());
+        }
+        StateFormat.readVersion(in, FORMAT_VERSION);
+        try (DataInputStream body = StateFormat.openBody(in)) {
+          if (body.readLong() != version) {
+            throw new IOException("Backup " + deltaPath.getFileName() + " does not follow the backup before it");
+          }
+          version = body.readLong();
+
+          List<StateSnapshot.GroupEntry> deltaGroups = new ArrayList<>();
+          int groupCount = body.readInt();
+          for (int i = 0; i < groupCount; i++) {
+            deltaGroups.add(new StateSnapshot.GroupEntry(body.readInt(), body.readUTF(), body.readBoolean(),
+                body.readInt(), body.readUnsignedByte(), body.readInt()));
+          }
+          groups = List.copyOf(deltaGroups);
+
+          int removedCount = body.readInt();
+          for (int i = 0; i < removedCount; i++) {
+            members.remove(body.readLong(), body.readLong());
+          }
+          int changedCount = body.readInt();
+          for (int i = 0; i < changedCount; i++) {
+            members.put(body.readLong(), body.readLong(), body.readInt());
+          }
+        }
+      } catch (EOFException e) {
+        throw new IOException("Backup " + deltaPath.getFileName() + " is truncated", e);
+      }
+    }
+
+    int memberCount = members.size();
+    long[] memberUuids = new long[2 * memberCount];
+    int[] memberGroupIds = new int[memberCount];
+    int[] index = { 0 };
+    members.forEach((mostBits, leastBits, groupId) -> {
+      int i = index[0]++;
+      memberUuids[2 * i] = mostBits;
+      memberUuids[2 * i + 1] = leastBits;
+      memberGroupIds[i] = groupId;
+    });
+    return new StateSnapshot(version, groups, memberUuids, memberGroupIds);
+  }
+
+  private static UuidIntMap toTable(StateSnapshot snapshot) {
+    UuidIntMap table = new UuidIntMap();
+    long[] uuids = snapshot.memberUuids();
+    for (int i = 0; i < snapshot.memberCount(); i++) {
+      table.put(uuids[2 * i], uuids[2 * i + 1], snapshot.memberGroupIds()[i]);
+    }
+    return table;
+  }
+}
@@ -0,0 +1,68 @@
+package samethope.inventory_shuffle.data;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * The UUIDs of the members of a group, kept while the member sets are not built
+ * so the members of one group can be found without scanning the membership
+ * table.
+ * <p>
+ * Players are not taken off the list when they leave the group, so it can also
+ * hold former members and list a member more than once. {@link #compact}
+ * checks every entry against the membership table and drops those.
+ */
+final class MemberList {
+  // Most and least significant bits of each UUID, one after the other
+  private long[] bits = new long[16];
+  private int size;
+
+  /**
+   * Gets the number of entries, including former members and duplicates
+   */
+  int size() {
+    return size;
+  }
+
+  void add(long mostBits, long leastBits) {
+    if (size * 2 == bits.length) {
+      bits = Arrays.copyOf(bits, bits.length * 2);
+    }
+    bits[size * 2] = mostBits;
+    bits[size * 2 + 1] = leastBits;
+    size++;
+  }
+
+  /**
+   * Drops the entries of players who are no longer in the group and the
+   * duplicates, so only the current members remain
+   */
+  void compact(UuidIntMap playerGroups, int groupId) {
+    UuidIntMap kept = new UuidIntMap();
+    int newSize = 0;
+    for (int i = 0; i < size; i++) {
+      long mostBits = bits[i * 2];
+      long leastBits = bits[i * 2 + 1];
+      if (playerGroups.get(mostBits, leastBits) == groupId
+          && kept.put(mostBits, leastBits, groupId) == UuidIntMap.NO_VALUE) {
+        bits[newSize * 2] = mostBits;
+        bits[newSize * 2 + 1] = leastBits;
+        newSize++;
+      }
+    }
+    size = newSize;
+  }
+
+  /**
+   * Gets the UUIDs of the entries
+   */
+  List<UUID> toUuids() {
+    List<UUID> uuids = new ArrayList<>(size);
+    for (int i = 0; i < size; i++) {
+      uuids.add(new UUID(bits[i * 2], bits[i * 2 + 1]));
+    }
+    return uuids;
+  }
+}
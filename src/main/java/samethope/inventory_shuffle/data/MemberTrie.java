@@ -0,0 +1,233 @@
+package samethope.inventory_shuffle.data;
+
+import java.util.Arrays;
+
+/**
+ * Persistent map from UUIDs to group IDs, shared by every published
+ * {@link StateView}.
+ * <p>
+ * Entries are spread by the top 15 bits of their hash over a radix tree of
+ * three levels of 32 slots, whose leaves hold the entries in small arrays. An
+ * update copies the three nodes on the path to its leaf and the leaf itself and
+ * shares everything else with the previous version, so it costs about a
+ * kilobyte regardless of how many members there are. Nothing is modified after
+ * construction, which makes every version safe to read from any thread.
+ */
+final class MemberTrie {
+  private static final int BITS = 5;
+  private static final int WIDTH = 1 << BITS;
+  private static final int MASK = WIDTH - 1;
+  private static final int HASH_SHIFT = Integer.SIZE - 3 * BITS;
+
+  static final MemberTrie EMPTY = new MemberTrie(new Object[WIDTH], 0);
+
+  private final Object[] root;
+  private final int size;
+
+  /**
+   * Entries of one leaf, with the UUIDs as pairs of the most and least
+   * significant bits
+   */
+  private record Leaf(long[] uuids, int[] groupIds) {
+    int indexOf(long most, long least) {
+      for (int i = 0; i < groupIds.length; i++) {
+        if (uuids[2 * i] == most && uuids[2 * i + 1] == least) {
+          return i;
+        }
+      }
+      return -1;
+    }
+  }
+
+  private MemberTrie(Object[] root, int size) {
+    this.root = root;
+    this.size = size;
+  }
+
+  int size() {
+    return size;
+  }
+
+  /**
+   * Gets the group ID of a member
+   *
+   * @return The group ID, or {@link UuidIntMap#NO_VALUE} if it is not a member
+   */
+  int get(long most, long least) {
+    Leaf leaf = findLeaf(slotOf(most, least));
+    if (leaf == null) {
+      return UuidIntMap.NO_VALUE;
+    }
+    int i = leaf.indexOf(most, least);
+    return i >= 0 ? leaf.groupIds()[i] : UuidIntMap.NO_VALUE;
+  }
+
+  /**
+   * Returns a version of this trie with a member put in a group
+   */
+  MemberTrie put(long most, long least, int groupId) {
+    int slot = slotOf(most, least);
+    Leaf leaf = findLeaf(slot);
+    int i = leaf != null ? leaf.indexOf(most, least) : -1;
+    if (i >= 0 && leaf.groupIds()[i] == groupId) {
+      return this;
+    }
+
+    Leaf newLeaf;
+    if (i >= 0) {
+      int[] groupIds = leaf.groupIds().clone();
+      groupIds[i] = groupId;
+      newLeaf = new Leaf(leaf.uuids(), groupIds);
+    } else {
+      int count = leaf != null ? leaf.groupIds().length : 0;
+      long[] uuids = leaf != null ? Arrays.copyOf(leaf.uuids(), 2 * count + 2) : new long[2];
+      int[] groupIds = leaf != null ? Arrays.copyOf(leaf.groupIds(), count + 1) : new int[1];
+      uuids[2 * count] = most;
+      uuids[2 * count + 1] = least;
+      groupIds[count] = groupId;
+      newLeaf = new Leaf(uuids, groupIds);
+    }
+    return new MemberTrie(withLeaf(slot, newLeaf), i >= 0 ? size : size + 1);
+  }
+
+  /**
+   * Returns a version of this trie without a member
+   */
+  MemberTrie remove(long most, long least) {
+    int slot = slotOf(most, least);
+    Leaf leaf = findLeaf(slot);
+    int i = leaf != null ? leaf.indexOf(most, least) : -1;
+    if (i < 0) {
+      return this;
+    }
+
+    int count = leaf.groupIds().length - 1;
+    Leaf newLeaf = null;
+    if (count > 0) {
+      // Move the last entry into the hole
+      long[] uuids = Arrays.copyOf(leaf.uuids(), 2 * count);
+      int[] groupIds = Arrays.copyOf(leaf.groupIds(), count);
+      if (i < count) {
+        uuids[2 * i] = leaf.uuids()[2 * count];
+        uuids[2 * i + 1] = leaf.uuids()[2 * count + 1];
+        groupIds[i] = leaf.groupIds()[count];
+      }
+      newLeaf = new Leaf(uuids, groupIds);
+    }
+    return new MemberTrie(withLeaf(slot, newLeaf), size - 1);
+  }
+
+  /**
+   * Builds a trie holding the entries of a membership table
+   */
+  static MemberTrie of(UuidIntMap table) {
+    int[] counts = new int[1 << (3 * BITS)];
+    table.forEach((mostBits, leastBits, groupId) -> counts[slotOf(mostBits, leastBits)]++);
+
+    Leaf[] leaves = new Leaf[counts.length];
+    table.forEach((mostBits, leastBits, groupId) -> {
+      int slot = slotOf(mostBits, leastBits);
+      Leaf leaf = leaves[slot];
+      if (leaf == null) {
+        leaf = new Leaf(new long[2 * counts[slot]], new int[counts[slot]]);
+        leaves[slot] = leaf;
+      }
+      int i = leaf.groupIds().length - counts[slot]--;
+      leaf.uuids()[2 * i] = mostBits;
+      leaf.uuids()[2 * i + 1] = leastBits;
+      leaf.groupIds()[i] = groupId;
+    });
+
+    Object[] root = new Object[WIDTH];
+    for (int slot = 0; slot < leaves.length; slot++) {
+      if (leaves[slot] != null) {
+        Object[] middle = (Object[]) root[slot >>> (2 * BITS)];
+        if (middle == null) {
+          middle = new Object[WIDTH];
+          root[slot >>> (2 * BITS)] = middle;
+        }
+        Object[] bottom = (Object[]) middle[(slot >>> BITS) & MASK];
+        if (bottom == null) {
+          bottom = new Object[WIDTH];
+          middle[(slot >>> BITS) & MASK] = bottom;
+        }
+        bottom[slot & MASK] = leaves[slot];
+      }
+    }
+    return new MemberTrie(root, table.size());
+  }
+
+  /**
+   * Passes every entry to a consumer, in no particular order
+   */
+  void forEach(UuidIntMap.EntryConsumer consumer) {
+    for (Object middle : root) {
+      if (middle == null) {
+        continue;
+      }
+      for (Object bottom : (Object[]) middle) {
+        if (bottom == null) {
+          continue;
+        }
+        for (Object node : (Object[]) bottom) {
+          if (node instanceof Leaf leaf) {
+            for (int i = 0; i < leaf.groupIds().length; i++) {
+              consumer.accept(leaf.uuids()[2 * i], leaf.uuids()[2 * i + 1], leaf.groupIds()[i]);
+            }
+          }
+        }
+      }
+    }
+  }
+
+  /**
+   * Passes the entries of the leaves from a slot on to a consumer, stopping
+   * after the leaf that reaches the given number of entries
+   *
+   * @return The slot to continue from, or -1 once every leaf was visited
+   */
+  int forEach(int fromSlot, int maxEntries, UuidIntMap.EntryConsumer consumer) {
+    int passed = 0;
+    for (int slot = fromSlot; slot < 1 << (3 * BITS); slot++) {
+      if (passed >= maxEntries) {
+        return slot;
+      }
+      Leaf leaf = findLeaf(slot);
+      if (leaf != null) {
+        for (int i = 0; i < leaf.groupIds().length; i++) {
+          consumer.accept(leaf.uuids()[2 * i], leaf.uuids()[2 * i + 1], leaf.groupIds()[i]);
+        }
+        passed += leaf.groupIds().length;
+      }
+    }
+    return -1;
+  }
+
+  private static int slotOf(long most, long least) {
+    return UuidIntMap.hash(most, least) >>> HASH_SHIFT;
+  }
+
+  private Leaf findLeaf(int slot) {
+    Object[] middle = (Object[]) root[slot >>> (2 * BITS)];
+    if (middle == null) {
+      return null;
+    }
+    Object[] bottom = (Object[]) middle[(slot >>> BITS) & MASK];
+    return bottom != null ? (Leaf) bottom[slot & MASK] : null;
+  }
+
+  /**
+   * Copies the path to a leaf with the leaf replaced
+   */
+  private Object[] withLeaf(int slot, Leaf leaf) {
+    Object[] newRoot = root.clone();
+    Object[] middle = (Object[]) newRoot[slot >>> (2 * BITS)];
+    middle = middle != null ? middle.clone() : new Object[WIDTH];
+    newRoot[slot >>> (2 * BITS)] = middle;
+    Object[] bottom = (Object[]) middle[(slot >>> BITS) & MASK];
+    bottom = bottom != null ? bottom.clone() : new Object[WIDTH];
+    middle[(slot >>> BITS) & MASK] = bottom;
+    bottom[slot & MASK] = leaf;
+    return newRoot;
+  }
+}
@@ -1,104 +1,374 @@
 package samethope.inventory_shuffle.data;
 
-import net.minecraft.nbt.NbtCompound;
-import net.minecraft.nbt.NbtIo;
 import net.minecraft.server.MinecraftServer;
 import net.minecraft.server.network.ServerPlayerEntity;
 import net.minecraft.util.WorldSavePath;
 import samethope.inventory_shuffle.InventoryShuffle;
 import samethope.inventory_shuffle.config.InventoryShuffleConfig;
 import samethope.inventory_shuffle.services.InventoryShuffler;
+import samethope.inventory_shuffle.services.ShuffleMetrics;
+import samethope.inventory_shuffle.services.StateBackups;
+import samethope.inventory_shuffle.services.StateWriter;
 
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
 
 /**
- * Singleton that manages the state of the inventory shuffle mod
+ * Singleton that manages the state of the inventory shuffle mod.
+ * <p>
+ * The state is mutated and queried on the server thread. Other threads read the
+ * immutable {@link StateView} published after every mutation through
+ * {@link #getView()}, and the methods documented as safe to call on any thread.
  */
 public class ModState {
   private static final String STATE_KEY = InventoryShuffle.MOD_ID;
   private static final Map<String, ShuffleGroup> groups = new HashMap<>();
-  private static final Map<UUID, String> playerGroups = new HashMap<>();
-  private static final Map<UUID, String> playerNames = new HashMap<>();
+  private static final List<ShuffleGroup> groupsById = new ArrayList<>();
+  private static final UuidIntMap playerGroups = new UuidIntMap();
+  private static final PlayerNameCache playerNames = new PlayerNameCache(
+      InventoryShuffleConfig.PLAYER_NAME_CACHE_SIZE);
+  private static final Map<String, Set<UUID>> groupMembers = new HashMap<>();
+  // The member sets are built from playerGroups the first time they are needed
+  // after loading, until then only playerGroups is kept up to date
+  private static boolean membersMaterialized;
+  // Members of each group by group name, kept until the member sets are built
+  private static final Map<String, MemberList> memberLists = new HashMap<>();
+
+  // IDs of the groups whose shards changed since the last sharded snapshot
+  private static final Set<Integer> dirtyShards = new HashSet<>();
+  private static final Map<String, OnlineMembers> onlineMembers = new HashMap<>();
+  // Number of members and membership stamp of each group by ID. The stamp
+  // changes whenever a player joins or leaves the group or a member joins or
+  // leaves the server, and is never reused, so it identifies the group's
+  // members and their online status.
+  private static int[] memberCounts = new int[0];
+  private static long[] memberStamps = new long[0];
+  private static long lastMemberStamp;
+
+  // Bumped by every mutation of saved state, compared to the version of the last
+  // save to skip saves while nothing changed. Also the sequence number of the
+  // mutation's journal record.
+  private static long mutationVersion;
+  private static long savedVersion;
+
+  // Whether a full snapshot exists on disk for journal records to apply to, and
+  // roughly how many bytes were appended to the journal since it was written
+  private static boolean snapshotOnDisk;
+  private static long journalBytes;
+  // Set while the journal is replayed so replayed mutations are not journaled
+  // again
+  private static boolean replaying;
+
+  // Immutable copy of the groups and memberships for readers on other threads,
+  // replaced after every mutation
+  private static volatile StateView view = StateView.EMPTY;
+
+  // Mutation version and time of the last backup
+  private static long backupVersion = -1;
+  private static long lastBackupTime;
 
   /**
-   * Saves the current mod state to an NBT file
+   * Marks the saved state as changed so the next save writes it
+   *
+   * @return The sequence number of the mutation
    */
-  public static void saveToNbt(MinecraftServer server) {
-    try {
-      NbtCompound rootNbt = new NbtCompound();
+  private static long markDirty() {
+    return ++mutationVersion;
+  }
 
-      NbtCompound groupsNbt = new NbtCompound();
-      for (Map.Entry<String, ShuffleGroup> entry : groups.entrySet()) {
-        groupsNbt.put(entry.getKey(), entry.getValue().toNbt());
-      }
-      rootNbt.put("Groups", groupsNbt);
+  /**
+   * Records an option change of a group
+   */
+  static void onGroupChanged(ShuffleGroup group) {
+    // Groups being set up by a rename are not part of the state yet
+    if (groups.get(group.getName()) != group) {
+      return;
+    }
 
-      NbtCompound playerGroupsNbt = new NbtCompound();
-      for (Map.Entry<UUID, String> entry : playerGroups.entrySet()) {
-        playerGroupsNbt.putString(entry.getKey().toString(), entry.getValue());
-      }
-      rootNbt.put("PlayerGroups", playerGroupsNbt);
+    long sequence = markDirty();
+    dirtyShards.add(group.getId());
+    if (!replaying) {
+      StateJournal.logGroupOptions(sequence, group);
+      publishGroups();
+    }
+  }
+
+  /**
+   * Gets the latest published view of the groups and memberships, which can be
+   * read on any thread
+   */
+  public static StateView getView() {
+    return view;
+  }
+
+  /**
+   * Publishes a view with the current groups
+   */
+  private static void publishGroups() {
+    view = view.withGroups(mutationVersion, groupsById);
+  }
+
+  /**
+   * Publishes a view built from scratch, used after bulk changes such as loading
+   */
+  private static void publishAll() {
+    view = view.withGroups(mutationVersion, groupsById, NameIndex.of(groups.keySet()))
+        .withMembers(mutationVersion, playerGroups).withPlayerNames(playerNames.sortedNames());
+  }
+
+  /**
+   * Publishes a view with the cached player names if they changed
+   */
+  private static void publishPlayerNames() {
+    if (!replaying && view.playerNameIndex() != playerNames.sortedNames()) {
+      view = view.withPlayerNames(playerNames.sortedNames());
+    }
+  }
+
+  /**
+   * Checks if the state changed since it was last saved or loaded. Shuffle
+   * timers do not count as changes.
+   */
+  public static boolean isDirty() {
+    return mutationVersion != savedVersion;
+  }
+
+  /**
+   * Saves the current mod state if it changed since the last save. Routine saves
+   * only append the mutations not yet appended at the end of a tick to the
+   * journal. A full snapshot of the state is written instead when forced, when
+   * the journal grew past its compaction threshold or when a previous write
+   * failed, which also resets the journal. In the sharded layout the snapshot only holds the groups
+   * that changed. Only the journal records or an immutable snapshot are
+   * taken on the calling thread, writing them happens on a background thread
+   * unless a synchronous save is requested.
+   *
+   * @param force Whether to save even if nothing changed, used to persist the
+   *              shuffle timers when the server stops or saves explicitly
+   * @param sync  Whether to wait for the state to be written
+   * @return true if a save was started
+   */
+  public static boolean saveToNbt(MinecraftServer server, boolean force, boolean sync) {
+    boolean failed = StateWriter.takeFailure();
+    if (!force && !failed && !isDirty()) {
+      return false;
+    }
 
-      NbtCompound playerNamesNbt = new NbtCompound();
-      for (Map.Entry<UUID, String> entry : playerNames.entrySet()) {
-        playerNamesNbt.putString(entry.getKey().toString(), entry.getValue());
+    long startTime = System.nanoTime();
+    byte[] records = StateJournal.drainPending();
+    if (!force && !failed && snapshotOnDisk
+        && journalBytes + records.length <= InventoryShuffleConfig.JOURNAL_COMPACTION_THRESHOLD) {
+      StateWriter.append(getJournalFilePath(server), records);
+      journalBytes += records.length;
+    } else if (InventoryShuffleConfig.SHARDED_STATE) {
+      StateWriter.submitSharded(getStateDirectoryPath(server), getJournalFilePath(server),
+          createShardedSnapshot(failed || !snapshotOnDisk));
+      snapshotOnDisk = true;
+      journalBytes = 0;
+    } else {
+      StateWriter.submit(getStateFilePath(server), getJournalFilePath(server), createSnapshot());
+      snapshotOnDisk = true;
+      journalBytes = 0;
+    }
+    savedVersion = mutationVersion;
+
+    if (sync) {
+      StateWriter.flush();
+    }
+    ShuffleMetrics.recordSave(System.nanoTime() - startTime);
+    return true;
+  }
+
+  /**
+   * Hands the journal records of the mutations made during this tick to the
+   * writer, so they reach the disk within a tick instead of waiting for the next
+   * save. Records are kept for the next save while no full snapshot is on disk
+   * for them to apply to, or after a failed write, as appending then could leave
+   * a gap in the journal.
+   */
+  public static void appendJournal(MinecraftServer server) {
+    if (!snapshotOnDisk || !StateJournal.hasPending() || StateWriter.hasFailed()) {
+      return;
+    }
+
+    byte[] records = StateJournal.drainPending();
+    StateWriter.append(getJournalFilePath(server), records);
+    journalBytes += records.length;
+  }
+
+  /**
+   * Backs up the state if the backup interval passed since the last backup
+   *
+   * @return true if a backup was started
+   */
+  public static boolean backupIfDue(MinecraftServer server) {
+    long interval = InventoryShuffleConfig.BACKUP_INTERVAL_MINUTES * 60_000_000_000L;
+    if (interval <= 0 || System.nanoTime() - lastBackupTime < interval) {
+      return false;
+    }
+    return backup(server);
+  }
+
+  /**
+   * Backs up the state in the background if it changed since the last backup.
+   * Only the snapshot is taken on the calling thread.
+   *
+   * @return true if a backup was started
+   */
+  public static boolean backup(MinecraftServer server) {
+    if (mutationVersion == backupVersion) {
+      return false;
+    }
+
+    StateBackups.submit(getBackupDirectoryPath(server), createSnapshot());
+    backupVersion = mutationVersion;
+    lastBackupTime = System.nanoTime();
+    return true;
+  }
+
+  /**
+   * Lists the names of the backups, oldest first
+   */
+  public static List<String> listBackups(MinecraftServer server) {
+    return StateBackups.list(getBackupDirectoryPath(server));
+  }
+
+  /**
+   * Rebuilds the state of a backup in the background
+   *
+   * @return The state of the backup, to be passed to {@link #restoreSnapshot} on
+   *         the server thread
+   */
+  public static CompletableFuture<StateSnapshot> readBackup(MinecraftServer server, String name) {
+    return StateBackups.restore(getBackupDirectoryPath(server), name);
+  }
+
+  /**
+   * Replaces the state with a restored snapshot, which the next save writes in
+   * full
+   */
+  public static void restoreSnapshot(MinecraftServer server, StateSnapshot snapshot) {
+    resetState();
+    StateLoader loader = new StateLoader();
+    snapshot.groups().forEach(loader::group);
+    long[] uuids = snapshot.memberUuids();
+    for (int i = 0; i < snapshot.memberCount(); i++) {
+      loader.member(uuids[2 * i], uuids[2 * i + 1], snapshot.memberGroupIds()[i]);
+    }
+    if (groups.isEmpty()) {
+      createGroup(InventoryShuffleConfig.DEFAULT_GROUP_NAME);
+    }
+
+    publishAll();
+
+    for (ServerPlayerEntity player : server.getPlayerManager().getPlayerList()) {
+      onPlayerJoin(player);
+    }
+  }
+
+  /**
+   * Takes an immutable snapshot of the saved state
+   */
+  public static StateSnapshot createSnapshot() {
+    List<StateSnapshot.GroupEntry> groupEntries = createGroupEntries();
+
+    int memberCount = playerGroups.size();
+    long[] memberUuids = new long[2 * memberCount];
+    int[] memberGroupIds = new int[memberCount];
+    int[] index = { 0 };
+    playerGroups.forEach((mostBits, leastBits, groupId) -> {
+      int i = index[0]++;
+      memberUuids[2 * i] = mostBits;
+      memberUuids[2 * i + 1] = leastBits;
+      memberGroupIds[i] = groupId;
+    });
+
+    return new StateSnapshot(mutationVersion, groupEntries, memberUuids, memberGroupIds);
+  }
+
+  /**
+   * Takes an immutable snapshot of the saved state for the sharded layout
+   *
+   * @param allShards Whether to include every group instead of only the groups
+   *                  that changed since the last sharded snapshot
+   */
+  private static ShardedSnapshot createShardedSnapshot(boolean allShards) {
+    materializeMembers();
+    Map<Integer, long[]> shards = new HashMap<>();
+    for (ShuffleGroup group : groups.values()) {
+      if (allShards || dirtyShards.contains(group.getId())) {
+        Set<UUID> members = groupMembers.get(group.getName());
+        long[] memberUuids = new long[2 * members.size()];
+        int i = 0;
+        for (UUID uuid : members) {
+          memberUuids[i++] = uuid.getMostSignificantBits();
+          memberUuids[i++] = uuid.getLeastSignificantBits();
+        }
+        shards.put(group.getId(), memberUuids);
       }
-      rootNbt.put("PlayerNames", playerNamesNbt);
+    }
+    dirtyShards.clear();
 
-      Path filePath = Path.of(server.getSavePath(WorldSavePath.ROOT).toString(),
-          STATE_KEY + InventoryShuffleConfig.SAVE_FILE_EXTENSION);
-      NbtIo.write(rootNbt, filePath);
+    return new ShardedSnapshot(mutationVersion, createGroupEntries(), Collections.unmodifiableMap(shards));
+  }
 
-      if (InventoryShuffleConfig.DEBUG_LOG_ENABLED) {
-        InventoryShuffle.LOGGER.debug("Saved mod state to {}", filePath);
+  private static List<StateSnapshot.GroupEntry> createGroupEntries() {
+    List<StateSnapshot.GroupEntry> groupEntries = new ArrayList<>(groups.size());
+    for (ShuffleGroup group : groupsById) {
+      if (group != null) {
+        groupEntries.add(new StateSnapshot.GroupEntry(group.getId(), group.getName(), group.isEnabled(),
+            group.getInterval(), group.getOptionFlags(), group.getTicksLeft()));
       }
-    } catch (IOException e) {
-      InventoryShuffle.LOGGER.error("Failed to save mod state: {}", e.getMessage(), e);
     }
+    return List.copyOf(groupEntries);
+  }
+
+  private static Path getStateDirectoryPath(MinecraftServer server) {
+    return Path.of(server.getSavePath(WorldSavePath.ROOT).toString(), STATE_KEY);
+  }
+
+  private static Path getBackupDirectoryPath(MinecraftServer server) {
+    return Path.of(server.getSavePath(WorldSavePath.ROOT).toString(), InventoryShuffleConfig.BACKUP_DIRECTORY);
+  }
+
+  private static Path getStateFilePath(MinecraftServer server) {
+    return Path.of(server.getSavePath(WorldSavePath.ROOT).toString(),
+        STATE_KEY + InventoryShuffleConfig.SAVE_FILE_EXTENSION);
+  }
+
+  private static Path getJournalFilePath(MinecraftServer server) {
+    return Path.of(server.getSavePath(WorldSavePath.ROOT).toString(),
+        STATE_KEY + InventoryShuffleConfig.JOURNAL_FILE_EXTENSION);
   }
 
   /**
-   * Loads the mod state from an NBT file
+   * Loads the mod state from the state file and replays the journal on top of it.
+   * Groups and the membership table are read eagerly, the member sets of the
+   * groups are only built once something enumerates them and player names are
+   * looked up when needed.
    */
   public static void loadFromNbt(MinecraftServer server) {
+    long startTime = System.nanoTime();
+    playerNames.setServer(server);
+    backupVersion = -1;
+    lastBackupTime = startTime;
     try {
-      Path filePath = Path.of(server.getSavePath(WorldSavePath.ROOT).toString(),
-          STATE_KEY + InventoryShuffleConfig.SAVE_FILE_EXTENSION);
-      if (Files.exists(filePath)) {
-        NbtCompound rootNbt = NbtIo.read(filePath);
-        if (rootNbt != null) {
-          groups.clear();
-          playerGroups.clear();
-          playerNames.clear();
-
-          NbtCompound groupsNbt = rootNbt.getCompound("Groups");
-          for (String groupName : groupsNbt.getKeys()) {
-            NbtCompound groupNbt = groupsNbt.getCompound(groupName);
-            groups.put(groupName, new ShuffleGroup(groupName, groupNbt));
-          }
-
-          NbtCompound playerGroupsNbt = rootNbt.getCompound("PlayerGroups");
-          for (String uuidStr : playerGroupsNbt.getKeys()) {
-            UUID uuid = UUID.fromString(uuidStr);
-            String groupName = playerGroupsNbt.getString(uuidStr);
-            if (groups.containsKey(groupName)) {
-              playerGroups.put(uuid, groupName);
-            }
-          }
-
-          if (rootNbt.contains("PlayerNames")) {
-            NbtCompound playerNamesNbt = rootNbt.getCompound("PlayerNames");
-            for (String uuidStr : playerNamesNbt.getKeys()) {
-              UUID uuid = UUID.fromString(uuidStr);
-              if (playerGroups.containsKey(uuid)) {
-                String playerName = playerNamesNbt.getString(uuidStr);
-                playerNames.put(uuid, playerName);
-              }
-            }
-          }
+      Path filePath = getStateFilePath(server);
+      Path directory = getStateDirectoryPath(server);
+      // Read the configured layout, or the other one if only that exists
+      boolean sharded = Files.exists(directory.resolve(ShardedStateFormat.MANIFEST_FILE))
+          && (InventoryShuffleConfig.SHARDED_STATE || !Files.exists(filePath));
+      if (sharded || Files.exists(filePath)) {
+        clearState();
+        StateLoader loader = new StateLoader();
+        if (sharded ? ShardedStateFormat.read(directory, loader) : StateFormat.read(filePath, loader)) {
+          replayJournal(getJournalFilePath(server));
+          savedVersion = mutationVersion;
+          // State read from the other layout is written in full by the next save
+          snapshotOnDisk = sharded == InventoryShuffleConfig.SHARDED_STATE;
 
           if (InventoryShuffleConfig.DEBUG_LOG_ENABLED) {
             InventoryShuffle.LOGGER.debug("Loaded mod state from {}", filePath);
@@ -117,16 +387,180 @@ public class ModState {
       InventoryShuffle.LOGGER.error("Failed to load mod state: {}", e.getMessage(), e);
       createDefaultGroup();
     }
+
+    publishAll();
+    long loadTime = System.nanoTime() - startTime;
+    ShuffleMetrics.recordLoad(loadTime);
+    InventoryShuffle.LOGGER.info("Loaded {} groups and {} grouped players in {} ms", groups.size(),
+        playerGroups.size(), loadTime / 1_000_000);
+  }
+
+  /**
+   * Fills the state straight from the state file as it is read
+   */
+  private static class StateLoader implements StateFormat.Visitor {
+    @Override
+    public void journalSequence(long sequence) {
+      mutationVersion = sequence;
+    }
+
+    @Override
+    public void group(StateSnapshot.GroupEntry entry) {
+      ShuffleGroup group = new ShuffleGroup(entry.id(), entry.name(), entry.enabled(), entry.interval(),
+          entry.optionFlags(), entry.ticksLeft());
+      while (groupsById.size() <= group.getId()) {
+        groupsById.add(null);
+      }
+      groupsById.set(group.getId(), group);
+      groups.put(group.getName(), group);
+      groupMembers.put(group.getName(), new HashSet<>());
+      memberLists.put(group.getName(), new MemberList());
+      onlineMembers.put(group.getName(), new OnlineMembers());
+      resetMembers(group.getId());
+      ShuffleScheduler.attach(group);
+    }
+
+    @Override
+    public void member(long mostBits, long leastBits, int groupId) {
+      // Skip members of groups that do not exist
+      if (groupId >= 0 && groupId < groupsById.size() && groupsById.get(groupId) != null) {
+        // A player listed twice only counts towards the last group
+        int previous = playerGroups.put(mostBits, leastBits, groupId);
+        if (previous != UuidIntMap.NO_VALUE) {
+          countMembers(previous, -1);
+        }
+        countMembers(groupId, 1);
+        listMember(groupsById.get(groupId), mostBits, leastBits);
+      }
+    }
+  }
+
+  /**
+   * Replays the journal records newer than the loaded snapshot
+   */
+  private static void replayJournal(Path journalPath) {
+    replaying = true;
+    try {
+      mutationVersion = Math.max(mutationVersion, StateJournal.replay(journalPath, mutationVersion));
+      journalBytes = Files.exists(journalPath) ? Files.size(journalPath) : 0;
+    } catch (IOException e) {
+      InventoryShuffle.LOGGER.error("Failed to replay state journal: {}", e.getMessage(), e);
+      // Compact on the next save so the unreadable journal is replaced
+      journalBytes = Long.MAX_VALUE / 2;
+    } finally {
+      replaying = false;
+    }
   }
 
   /**
    * Creates a default group if no groups exist
    */
   private static void createDefaultGroup() {
+    clearState();
+    snapshotOnDisk = false;
+    createGroup(InventoryShuffleConfig.DEFAULT_GROUP_NAME);
+  }
+
+  /**
+   * Removes every group and member, so the next save writes a full snapshot
+   */
+  public static void resetState() {
+    clearState();
+    snapshotOnDisk = false;
+    markDirty();
+    publishAll();
+  }
+
+  private static void clearState() {
     groups.clear();
+    groupsById.clear();
     playerGroups.clear();
     playerNames.clear();
-    createGroup(InventoryShuffleConfig.DEFAULT_GROUP_NAME);
+    groupMembers.clear();
+    memberLists.clear();
+    membersMaterialized = false;
+    dirtyShards.clear();
+    onlineMembers.clear();
+    Arrays.fill(memberCounts, 0);
+    ShuffleMetrics.resetGroups();
+    ShuffleScheduler.clear();
+    StateJournal.clearPending();
+  }
+
+  /**
+   * Gets the lowest group ID not in use
+   */
+  private static int nextGroupId() {
+    int id = groupsById.indexOf(null);
+    if (id < 0) {
+      id = groupsById.size();
+      groupsById.add(null);
+    }
+    return id;
+  }
+
+  /**
+   * Adds to the member count of a group and gives it a new membership stamp
+   */
+  private static void countMembers(int groupId, int delta) {
+    if (groupId >= memberCounts.length) {
+      int length = Math.max(groupId + 1, memberCounts.length * 2);
+      memberCounts = Arrays.copyOf(memberCounts, length);
+      memberStamps = Arrays.copyOf(memberStamps, length);
+    }
+    memberCounts[groupId] += delta;
+    memberStamps[groupId] = ++lastMemberStamp;
+  }
+
+  /**
+   * Sets the member count of a new or deleted group to zero
+   */
+  private static void resetMembers(int groupId) {
+    countMembers(groupId, 0);
+    memberCounts[groupId] = 0;
+  }
+
+  /**
+   * Adds a player to the member list of a group, first dropping the entries of
+   * former members if they outnumber the members
+   */
+  private static void listMember(ShuffleGroup group, long mostBits, long leastBits) {
+    MemberList list = memberLists.get(group.getName());
+    if (list.size() > memberCounts[group.getId()] * 2 + 16) {
+      list.compact(playerGroups, group.getId());
+    }
+    list.add(mostBits, leastBits);
+  }
+
+  /**
+   * Builds the member sets of every group from the membership table if that has
+   * not happened since the state was loaded
+   */
+  private static void materializeMembers() {
+    if (membersMaterialized) {
+      return;
+    }
+
+    long startTime = System.nanoTime();
+    playerGroups.forEach((mostBits, leastBits, groupId) -> groupMembers.get(groupsById.get(groupId).getName())
+        .add(new UUID(mostBits, leastBits)));
+    membersMaterialized = true;
+    memberLists.clear();
+
+    if (InventoryShuffleConfig.DEBUG_LOG_ENABLED) {
+      InventoryShuffle.LOGGER.debug("Built member sets of {} players in {} ms", playerGroups.size(),
+          (System.nanoTime() - startTime) / 1_000_000);
+    }
+  }
+
+  /**
+   * Gets the name of the group a player is in
+   *
+   * @return The group name, or null if the player is not in a group
+   */
+  private static String groupNameOf(UUID uuid) {
+    int groupId = playerGroups.get(uuid);
+    return groupId != UuidIntMap.NO_VALUE ? groupsById.get(groupId).getName() : null;
   }
 
   /**
@@ -136,10 +570,55 @@ public class ModState {
     if (groups.containsKey(name)) {
       return false;
     }
-    groups.put(name, new ShuffleGroup(name));
+    ShuffleGroup group = new ShuffleGroup(nextGroupId(), name);
+    long sequence = markDirty();
+    if (!replaying) {
+      StateJournal.logCreateGroup(sequence, name);
+    }
+    addGroup(group);
     return true;
   }
 
+  /**
+   * Sets the options of a group, creating it if it does not exist. A new group
+   * is journaled and published once with its options, instead of once when it
+   * is created and again when its options are set.
+   *
+   * @param optionFlags The packed slot and scheduling options
+   */
+  public static void putGroup(String name, boolean enabled, int interval, int optionFlags) {
+    ShuffleGroup existing = groups.get(name);
+    if (existing != null) {
+      existing.applyOptions(enabled, interval, optionFlags);
+      return;
+    }
+
+    ShuffleGroup group = new ShuffleGroup(nextGroupId(), name, enabled, interval, optionFlags, interval);
+    long sequence = markDirty();
+    if (!replaying) {
+      StateJournal.logGroupOptions(sequence, group);
+    }
+    addGroup(group);
+  }
+
+  private static void addGroup(ShuffleGroup group) {
+    String name = group.getName();
+    dirtyShards.add(group.getId());
+    groups.put(name, group);
+    groupsById.set(group.getId(), group);
+    groupMembers.put(name, new HashSet<>());
+    if (!membersMaterialized) {
+      memberLists.put(name, new MemberList());
+    }
+    onlineMembers.put(name, new OnlineMembers());
+    resetMembers(group.getId());
+    ShuffleMetrics.resetGroup(group.getId());
+    ShuffleScheduler.attach(group);
+    if (!replaying) {
+      view = view.withGroups(mutationVersion, groupsById, view.groupNameIndex().with(name));
+    }
+  }
+
   /**
    * Deletes a group and removes all players from it
    */
@@ -148,19 +627,66 @@ public class ModState {
       return false;
     }
 
-    groups.remove(name);
-    playerGroups.entrySet().removeIf(entry -> entry.getValue().equals(name));
-
+    long sequence = markDirty();
+    if (!replaying) {
+      StateJournal.logDeleteGroup(sequence, name);
+    }
+    ShuffleGroup group = groups.remove(name);
+    int groupId = group.getId();
+    groupsById.set(groupId, null);
+    ShuffleScheduler.detach(group);
+    onlineMembers.remove(name);
+
+    // Take the members from the member set if it is built, or from the member
+    // list otherwise, so deleting only visits the group's own members
+    List<UUID> members;
+    if (membersMaterialized) {
+      members = new ArrayList<>(groupMembers.get(name));
+    } else {
+      MemberList list = memberLists.remove(name);
+      list.compact(playerGroups, groupId);
+      members = list.toUuids();
+    }
+    for (UUID uuid : members) {
+      playerGroups.remove(uuid);
+      playerNames.remove(uuid);
+    }
+    groupMembers.remove(name);
+    resetMembers(groupId);
+    ShuffleMetrics.resetGroup(groupId);
+
+    if (!replaying) {
+      StateView newView = view.withGroups(mutationVersion, groupsById, view.groupNameIndex().without(name));
+      // Rebuilding the member table is cheaper than removing many members one
+      // by one
+      if (members.size() > playerGroups.size() / 16) {
+        newView = newView.withMembers(mutationVersion, playerGroups);
+      } else {
+        for (UUID uuid : members) {
+          newView = newView.withoutMember(mutationVersion, uuid);
+        }
+      }
+      view = newView.withPlayerNames(playerNames.sortedNames());
+    }
     return true;
   }
 
   /**
-   * Lists all existing groups
+   * Lists all existing groups, sorted by name ignoring case. Safe to call on any
+   * thread.
    */
   public static List<String> listGroups() {
-    List<String> groupNames = new ArrayList<>(groups.keySet());
-    Collections.sort(groupNames);
-    return groupNames;
+    return view.groupNames();
+  }
+
+  /**
+   * Finds the groups whose name starts with a prefix, ignoring case. Safe to
+   * call on any thread.
+   *
+   * @param limit The maximum number of names to return
+   */
+  public static List<String> findGroups(String prefix, int limit) {
+    return view.findGroupNames(prefix, limit);
   }
 
   /**
@@ -174,12 +700,70 @@ public class ModState {
    * Adds a player to a group
    */
   public static boolean addPlayerToGroup(ServerPlayerEntity player, String groupName) {
+    if (!putMember(player.getUuid(), player.getName().getString(), groupName)) {
+      return false;
+    }
+
+    onlineMembers.get(groupName).put(groups.get(groupName), player);
+    return true;
+  }
+
+  /**
+   * Adds a player to a group by UUID, tracking them as online if they are on the
+   * server
+   *
+   * @param playerName The player's name, or null if it is not known
+   */
+  public static boolean addPlayerToGroup(MinecraftServer server, UUID uuid, String playerName, String groupName) {
+    ServerPlayerEntity player = server.getPlayerManager().getPlayer(uuid);
+    if (player != null) {
+      return addPlayerToGroup(player, groupName);
+    }
+    return putMember(uuid, playerName, groupName);
+  }
+
+  /**
+   * Adds a player to a group by UUID, without tracking them as online
+   *
+   * @param playerName The player's name, or null if it is not known
+   */
+  static boolean putMember(UUID uuid, String playerName, String groupName) {
     if (!groups.containsKey(groupName)) {
       return false;
     }
 
-    playerGroups.put(player.getUuid(), groupName);
-    playerNames.put(player.getUuid(), player.getName().getString());
+    long sequence = markDirty();
+    if (!replaying) {
+      StateJournal.logAddPlayer(sequence, uuid, playerName, groupName);
+    }
+    int groupId = groups.get(groupName).getId();
+    int previousGroupId = playerGroups.put(uuid, groupId);
+    if (!replaying) {
+      view = view.withMember(sequence, uuid, groupId);
+    }
+    dirtyShards.add(groupId);
+    countMembers(groupId, 1);
+    if (previousGroupId != UuidIntMap.NO_VALUE) {
+      dirtyShards.add(previousGroupId);
+      countMembers(previousGroupId, -1);
+    }
+    String previousGroup = previousGroupId != UuidIntMap.NO_VALUE ? groupsById.get(previousGroupId).getName()
+        : null;
+    if (previousGroup != null) {
+      onlineMembers.get(previousGroup).remove(groupsById.get(previousGroupId), uuid);
+    }
+    if (membersMaterialized) {
+      if (previousGroup != null) {
+        groupMembers.get(previousGroup).remove(uuid);
+      }
+      groupMembers.get(groupName).add(uuid);
+    } else if (previousGroupId != groupId) {
+      listMember(groups.get(groupName), uuid.getMostSignificantBits(), uuid.getLeastSignificantBits());
+    }
+    if (playerName != null) {
+      playerNames.put(uuid, playerName);
+      publishPlayerNames();
+    }
     return true;
   }
 
@@ -187,11 +771,7 @@ public class ModState {
    * Removes a player from their group
    */
   public static boolean removePlayer(ServerPlayerEntity player) {
-    boolean removed = playerGroups.remove(player.getUuid()) != null;
-    if (removed) {
-      playerNames.remove(player.getUuid());
-    }
-    return removed;
+    return removePlayerByUuid(player.getUuid());
   }
 
   /**
@@ -202,9 +782,13 @@ public class ModState {
       return false;
     }
 
+    long sequence = markDirty();
+    if (!replaying) {
+      StateJournal.logRenameGroup(sequence, oldName, newName);
+    }
     ShuffleGroup group = groups.remove(oldName);
 
-    ShuffleGroup newGroup = new ShuffleGroup(newName);
+    ShuffleGroup newGroup = new ShuffleGroup(group.getId(), newName);
     newGroup.setEnabled(group.isEnabled());
     newGroup.setInterval(group.getInterval());
     newGroup.setShuffleEmptySlots(group.isShuffleEmptySlots());
@@ -212,13 +796,22 @@ public class ModState {
     newGroup.setShuffleHotbar(group.isShuffleHotbar());
     newGroup.setShuffleHand(group.isShuffleHand());
     newGroup.setShuffleOffhand(group.isShuffleOffhand());
+    newGroup.setSpread(group.isSpread());
+    newGroup.copyTimerFrom(group);
 
+    ShuffleScheduler.detach(group);
     groups.put(newName, newGroup);
+    groupsById.set(newGroup.getId(), newGroup);
+    ShuffleScheduler.attach(newGroup);
 
-    for (Map.Entry<UUID, String> entry : playerGroups.entrySet()) {
-      if (entry.getValue().equals(oldName)) {
-        playerGroups.put(entry.getKey(), newName);
-      }
+    // Members refer to the group by ID, which the new group keeps
+    groupMembers.put(newName, groupMembers.remove(oldName));
+    if (!membersMaterialized) {
+      memberLists.put(newName, memberLists.remove(oldName));
+    }
+    onlineMembers.put(newName, onlineMembers.remove(oldName));
+    if (!replaying) {
+      view = view.withGroups(mutationVersion, groupsById, view.groupNameIndex().without(oldName).with(newName));
     }
 
     return true;
@@ -228,7 +821,7 @@ public class ModState {
    * Gets a player's group
    */
   public static Optional<ShuffleGroup> getPlayerGroup(ServerPlayerEntity player) {
-    String groupName = playerGroups.get(player.getUuid());
+    String groupName = groupNameOf(player.getUuid());
     if (groupName != null) {
       return Optional.ofNullable(groups.get(groupName));
     }
@@ -236,89 +829,195 @@ public class ModState {
   }
 
   /**
-   * Gets a player's group name
+   * Gets a player's group name. Safe to call on any thread.
    */
   public static Optional<String> getPlayerGroupName(ServerPlayerEntity player) {
-    String groupName = playerGroups.get(player.getUuid());
-    if (groupName != null) {
-      return Optional.of(groupName);
-    }
-    return Optional.empty();
+    return view.groupNameOf(player.getUuid());
   }
 
   /**
-   * Gets a player's group name by UUID
+   * Gets a player's group name by UUID. Safe to call on any thread.
    */
   public static Optional<String> getPlayerGroupName(UUID uuid) {
-    String groupName = playerGroups.get(uuid);
-    if (groupName != null) {
-      return Optional.of(groupName);
-    }
-    return Optional.empty();
+    return view.groupNameOf(uuid);
   }
 
   /**
    * Gets all players in a group
    */
   public static List<UUID> getPlayersInGroup(String groupName) {
-    List<UUID> players = new ArrayList<>();
+    materializeMembers();
+    Set<UUID> members = groupMembers.get(groupName);
+    return members != null ? new ArrayList<>(members) : new ArrayList<>();
+  }
 
-    for (Map.Entry<UUID, String> entry : playerGroups.entrySet()) {
-      if (entry.getValue().equals(groupName)) {
-        players.add(entry.getKey());
-      }
+  /**
+   * Gets the number of players in a group without listing them
+   */
+  public static int getMemberCount(String groupName) {
+    ShuffleGroup group = groups.get(groupName);
+    return group != null ? memberCounts[group.getId()] : 0;
+  }
+
+  /**
+   * Gets the number of players in a group that are on the server
+   */
+  public static int getOnlineMemberCount(String groupName) {
+    OnlineMembers members = onlineMembers.get(groupName);
+    return members != null ? members.size() : 0;
+  }
+
+  /**
+   * Gets the membership stamp of a group, which changes whenever a player joins
+   * or leaves the group or a member joins or leaves the server. Stamps are never
+   * reused, not even by other groups or after the state is reloaded.
+   *
+   * @return The stamp, or -1 if the group does not exist
+   */
+  public static long getMembersStamp(String groupName) {
+    ShuffleGroup group = groups.get(groupName);
+    return group != null ? memberStamps[group.getId()] : -1;
+  }
+
+  /**
+   * Tracks a grouped player that joined the server
+   */
+  public static void onPlayerJoin(ServerPlayerEntity player) {
+    int groupId = playerGroups.get(player.getUuid());
+    if (groupId != UuidIntMap.NO_VALUE) {
+      ShuffleGroup group = groupsById.get(groupId);
+      onlineMembers.get(group.getName()).put(group, player);
+      playerNames.put(player.getUuid(), player.getName().getString());
+      publishPlayerNames();
+      countMembers(groupId, 0);
     }
+  }
 
-    return players;
+  /**
+   * Stops tracking a grouped player that left the server
+   */
+  public static void onPlayerLeave(ServerPlayerEntity player) {
+    int groupId = playerGroups.get(player.getUuid());
+    if (groupId != UuidIntMap.NO_VALUE) {
+      ShuffleGroup group = groupsById.get(groupId);
+      onlineMembers.get(group.getName()).remove(group, player.getUuid());
+      countMembers(groupId, 0);
+    }
   }
 
   /**
-   * Processes a server tick, including updating shuffle counters and shuffling
-   * inventories
+   * Replaces the tracked entity of a grouped player that respawned, since the
+   * server creates a new player entity on respawn
    */
-  public static void processTick(MinecraftServer server) {
-    for (ShuffleGroup group : groups.values()) {
-      group.tick();
+  public static void onPlayerRespawn(ServerPlayerEntity newPlayer) {
+    int groupId = playerGroups.get(newPlayer.getUuid());
+    if (groupId != UuidIntMap.NO_VALUE) {
+      ShuffleGroup group = groupsById.get(groupId);
+      onlineMembers.get(group.getName()).put(group, newPlayer);
+    }
+  }
 
-      if (group.shouldShuffle()) {
-        List<UUID> playersToShuffle = getPlayersInGroup(group.getName());
+  /**
+   * Processes a server tick, shuffling the inventories of the online members of
+   * the groups the scheduler reports as due
+   */
+  public static void processTick(MinecraftServer server) {
+    long startTime = System.nanoTime();
+    ShuffleScheduler.advance();
+
+    ShuffleGroup group;
+    while ((group = ShuffleScheduler.pollDue()) != null) {
+      if (group.isSpread()) {
+        processSpreadGroup(group);
+      } else if (group.shouldShuffle()) {
+        Collection<ServerPlayerEntity> playersToShuffle = onlineMembers.get(group.getName()).all();
         if (!playersToShuffle.isEmpty() && InventoryShuffleConfig.DEBUG_LOG_ENABLED) {
           InventoryShuffle.LOGGER.debug("Shuffling inventories for group: {} ({} players)", group.getName(),
               playersToShuffle.size());
         }
 
-        for (UUID uuid : playersToShuffle) {
-          ServerPlayerEntity player = server.getPlayerManager().getPlayer(uuid);
-          if (player != null) {
-            InventoryShuffler.shuffleInventory(player);
-          }
+        for (ServerPlayerEntity player : playersToShuffle) {
+          InventoryShuffler.shuffleInventory(player, group);
         }
       }
+      ShuffleScheduler.reschedule(group);
+    }
+
+    ShuffleMetrics.recordTick(System.nanoTime() - startTime);
+  }
+
+  /**
+   * Shuffles the online members of a spread group whose phase falls on this
+   * tick, then advances the group's interval. Only the members in the bucket of
+   * the current phase are visited.
+   */
+  private static void processSpreadGroup(ShuffleGroup group) {
+    if (group.isEnabled()) {
+      for (ServerPlayerEntity player : onlineMembers.get(group.getName()).due(group)) {
+        InventoryShuffler.shuffleInventory(player, group);
+      }
     }
+    group.shouldShuffle();
   }
 
   /**
-   * Gets a player's name by UUID
+   * Gets a player's name by UUID, looking it up in the server's user cache if it
+   * is not cached
    */
   public static String getPlayerName(UUID uuid) {
-    return playerNames.getOrDefault(uuid, null);
+    String name = playerNames.get(uuid);
+    publishPlayerNames();
+    return name;
+  }
+
+  /**
+   * Gets a player's name by UUID like {@link #getPlayerName} but without caching
+   * it or marking it as recently used, for looking up many names at once
+   */
+  public static String peekPlayerName(UUID uuid) {
+    return playerNames.peek(uuid);
   }
 
   /**
-   * Gets all UUIDs of players in any group
+   * Finds the grouped players known by a name, ignoring case, looking it up in
+   * the server's user cache if no cached name matches
+   *
+   * @return The UUIDs of the players, which are more than one only if some of
+   *         them renamed since their names were cached
    */
-  public static Set<UUID> getGroupedPlayerUuids() {
-    return new HashSet<>(playerGroups.keySet());
+  public static List<UUID> findGroupedPlayersByName(String name) {
+    List<UUID> uuids = new ArrayList<>();
+    for (UUID uuid : playerNames.findUuids(name)) {
+      if (playerGroups.containsKey(uuid)) {
+        uuids.add(uuid);
+      }
+    }
+    return uuids;
   }
 
   /**
    * Removes a player from their group by UUID
    */
   public static boolean removePlayerByUuid(UUID uuid) {
-    boolean removed = playerGroups.remove(uuid) != null;
-    if (removed) {
-      playerNames.remove(uuid);
+    int groupId = playerGroups.remove(uuid);
+    if (groupId == UuidIntMap.NO_VALUE) {
+      return false;
+    }
+    String groupName = groupsById.get(groupId).getName();
+    dirtyShards.add(groupId);
+    countMembers(groupId, -1);
+
+    long sequence = markDirty();
+    if (!replaying) {
+      StateJournal.logRemovePlayer(sequence, uuid);
+      view = view.withoutMember(sequence, uuid);
     }
-    return removed;
+    if (membersMaterialized) {
+      groupMembers.get(groupName).remove(uuid);
+    }
+    onlineMembers.get(groupName).remove(groupsById.get(groupId), uuid);
+    playerNames.remove(uuid);
+    publishPlayerNames();
+    return true;
   }
 }
\ No newline at end of file
@@ -0,0 +1,121 @@
+package samethope.inventory_shuffle.data;
+
+import java.util.*;
+
+/**
+ * Immutable sorted array of names for case-insensitive prefix lookups.
+ * <p>
+ * Names are sorted by their lower case form, so all names starting with a
+ * prefix are found next to each other with one binary search. Adding or
+ * removing a name copies the arrays instead of sorting them again.
+ */
+final class NameIndex {
+  static final NameIndex EMPTY = new NameIndex(new String[0], new String[0]);
+
+  // Lower case forms of the names, sorted, with ties broken by the names
+  private final String[] keys;
+  private final String[] names;
+
+  private NameIndex(String[] keys, String[] names) {
+    this.keys = keys;
+    this.names = names;
+  }
+
+  /**
+   * Builds an index of the given names
+   */
+  static NameIndex of(Collection<String> names) {
+    String[] sortedNames = names.toArray(new String[0]);
+    Arrays.sort(sortedNames, NameIndex::compare);
+    String[] keys = new String[sortedNames.length];
+    for (int i = 0; i < keys.length; i++) {
+      keys[i] = toKey(sortedNames[i]);
+    }
+    return new NameIndex(keys, sortedNames);
+  }
+
+  /**
+   * Returns an index that also contains a name
+   */
+  NameIndex with(String name) {
+    int i = indexOf(name);
+    if (i >= 0) {
+      return this;
+    }
+
+    i = -i - 1;
+    String[] newKeys = new String[keys.length + 1];
+    String[] newNames = new String[names.length + 1];
+    System.arraycopy(keys, 0, newKeys, 0, i);
+    System.arraycopy(names, 0, newNames, 0, i);
+    newKeys[i] = toKey(name);
+    newNames[i] = name;
+    System.arraycopy(keys, i, newKeys, i + 1, keys.length - i);
+    System.arraycopy(names, i, newNames, i + 1, names.length - i);
+    return new NameIndex(newKeys, newNames);
+  }
+
+  /**
+   * Returns an index without a name
+   */
+  NameIndex without(String name) {
+    int i = indexOf(name);
+    if (i < 0) {
+      return this;
+    }
+
+    String[] newKeys = new String[keys.length - 1];
+    String[] newNames = new String[names.length - 1];
+    System.arraycopy(keys, 0, newKeys, 0, i);
+    System.arraycopy(names, 0, newNames, 0, i);
+    System.arraycopy(keys, i + 1, newKeys, i, keys.length - i - 1);
+    System.arraycopy(names, i + 1, newNames, i, names.length - i - 1);
+    return new NameIndex(newKeys, newNames);
+  }
+
+  /**
+   * Gets all names in order
+   */
+  List<String> asList() {
+    return Collections.unmodifiableList(Arrays.asList(names));
+  }
+
+  /**
+   * Finds the names starting with a prefix, ignoring case
+   *
+   * @param limit The maximum number of names to return
+   */
+  List<String> find(String prefix, int limit) {
+    String key = toKey(prefix);
+    // First name whose key is not less than the prefix
+    int low = 0;
+    int high = keys.length;
+    while (low < high) {
+      int middle = (low + high) >>> 1;
+      if (keys[middle].compareTo(key) < 0) {
+        low = middle + 1;
+      } else {
+        high = middle;
+      }
+    }
+
+    List<String> matches = new ArrayList<>();
+    for (int i = low; i < keys.length && matches.size() < limit && keys[i].startsWith(key); i++) {
+      matches.add(names[i]);
+    }
+    return matches;
+  }
+
+  private int indexOf(String name) {
+    return Arrays.binarySearch(names, name, NameIndex::compare);
+  }
+
+  private static int compare(String a, String b) {
+    int result = toKey(a).compareTo(toKey(b));
+    return result != 0 ? result : a.compareTo(b);
+  }
+
+  static String toKey(String name) {
+    return name.toLowerCase(Locale.ROOT);
+  }
+}
@@ -0,0 +1,90 @@
+package samethope.inventory_shuffle.data;
+
+import net.minecraft.server.network.ServerPlayerEntity;
+
+import java.util.*;
+
+/**
+ * The members of a group that are on the server.
+ * <p>
+ * Once the group is processed as a spread group, the members are also bucketed
+ * by their shuffle phase, so each tick only visits the members due on it
+ * instead of every online member. The buckets are kept up to date as members
+ * join and leave, and rebuilt once when the group's interval changes.
+ */
+final class OnlineMembers {
+  private final Map<UUID, ServerPlayerEntity> players = new HashMap<>();
+  // Members by shuffle phase, null until the group is first processed as spread
+  private Map<Integer, Map<UUID, ServerPlayerEntity>> phases;
+  // Interval the phases were computed for
+  private int phaseInterval;
+
+  /**
+   * Tracks a member, replacing the entity tracked for them if any
+   */
+  void put(ShuffleGroup group, ServerPlayerEntity player) {
+    players.put(player.getUuid(), player);
+    if (phases != null && !rebuildPhases(group)) {
+      phases.computeIfAbsent(group.getShufflePhase(player.getUuid()), phase -> new HashMap<>())
+          .put(player.getUuid(), player);
+    }
+  }
+
+  /**
+   * Stops tracking a member
+   */
+  void remove(ShuffleGroup group, UUID uuid) {
+    if (players.remove(uuid) == null) {
+      return;
+    }
+    if (phases != null && !rebuildPhases(group)) {
+      int phase = group.getShufflePhase(uuid);
+      Map<UUID, ServerPlayerEntity> bucket = phases.get(phase);
+      bucket.remove(uuid);
+      if (bucket.isEmpty()) {
+        phases.remove(phase);
+      }
+    }
+  }
+
+  int size() {
+    return players.size();
+  }
+
+  Collection<ServerPlayerEntity> all() {
+    return players.values();
+  }
+
+  /**
+   * Gets the members whose phase falls on the group's current tick
+   */
+  Collection<ServerPlayerEntity> due(ShuffleGroup group) {
+    if (phases == null) {
+      phases = new HashMap<>();
+      phaseInterval = -1;
+    }
+    rebuildPhases(group);
+    Map<UUID, ServerPlayerEntity> bucket = phases.get(group.getCurrentPhase());
+    return bucket != null ? bucket.values() : List.of();
+  }
+
+  /**
+   * Rebuckets every member if the group's interval changed since the phases
+   * were computed
+   *
+   * @return true if the phases were rebuilt
+   */
+  private boolean rebuildPhases(ShuffleGroup group) {
+    if (phaseInterval == group.getInterval()) {
+      return false;
+    }
+
+    phaseInterval = group.getInterval();
+    phases.clear();
+    for (ServerPlayerEntity player : players.values()) {
+      phases.computeIfAbsent(group.getShufflePhase(player.getUuid()), phase -> new HashMap<>())
+          .put(player.getUuid(), player);
+    }
+    return true;
+  }
+}
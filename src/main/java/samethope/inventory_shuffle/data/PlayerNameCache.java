@@ -0,0 +1,182 @@
+package samethope.inventory_shuffle.data;
+
+import com.mojang.authlib.GameProfile;
+import net.minecraft.server.MinecraftServer;
+import net.minecraft.util.UserCache;
+import samethope.inventory_shuffle.mixin.UserCacheAccessor;
+import samethope.inventory_shuffle.mixin.UserCacheEntryAccessor;
+
+import java.util.*;
+
+/**
+ * Bounded cache of the last known names of grouped players.
+ * <p>
+ * Names are cached when a player is added to a group or joins the server, and
+ * the least recently used name is evicted once the cache is full. A miss falls
+ * back to the server's user cache in memory, so only names neither cache knows
+ * about are lost. The cached names are also kept sorted by their lower case form, with
+ * the players that have them, for reverse lookups, and in an immutable
+ * {@link NameIndex} that is published with the state view for prefix lookups.
+ */
+final class PlayerNameCache {
+  private final int capacity;
+  // Names in the order they were last used, kept in insertion order so names
+  // can also be read without marking them as used
+  private final LinkedHashMap<UUID, String> names;
+  // Cached names by lower case form, with the players that have them. Several
+  // players only share a name if some of them renamed since it was cached.
+  private final TreeMap<String, IndexedName> index = new TreeMap<>();
+  // The names in index, replaced whenever a name is added to or removed from it
+  private NameIndex sortedNames = NameIndex.EMPTY;
+  private MinecraftServer server;
+
+  private static final class IndexedName {
+    private final String name;
+    private final List<UUID> uuids = new ArrayList<>(1);
+
+    private IndexedName(String name) {
+      this.name = name;
+    }
+  }
+
+  PlayerNameCache(int capacity) {
+    this.capacity = capacity;
+    this.names = new LinkedHashMap<>() {
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<UUID, String> eldest) {
+        if (size() > PlayerNameCache.this.capacity) {
+          unindex(eldest.getKey(), eldest.getValue());
+          return true;
+        }
+        return false;
+      }
+    };
+  }
+
+  /**
+   * Sets the server whose user cache is consulted on a miss
+   */
+  void setServer(MinecraftServer server) {
+    this.server = server;
+  }
+
+  /**
+   * Gets a player's name, looking it up in the server's user cache on a miss
+   *
+   * @return The name, or null if it is not known
+   */
+  String get(UUID uuid) {
+    String name = names.remove(uuid);
+    if (name != null) {
+      names.put(uuid, name);
+      return name;
+    }
+
+    name = getFromUserCache(uuid);
+    if (name != null) {
+      put(uuid, name);
+    }
+    return name;
+  }
+
+  /**
+   * Gets a player's name like {@link #get} without caching it or marking it as
+   * used
+   *
+   * @return The name, or null if it is not known
+   */
+  String peek(UUID uuid) {
+    String name = names.get(uuid);
+    return name != null ? name : getFromUserCache(uuid);
+  }
+
+  private String getFromUserCache(UUID uuid) {
+    UserCache userCache = server != null ? server.getUserCache() : null;
+    if (userCache == null) {
+      return null;
+    }
+    return userCache.getByUuid(uuid).map(GameProfile::getName).orElse(null);
+  }
+
+  void put(UUID uuid, String name) {
+    // Removed first so the name moves to the most recently used end
+    String previous = names.remove(uuid);
+    names.put(uuid, name);
+    if (name.equals(previous)) {
+      return;
+    }
+    if (previous != null) {
+      unindex(uuid, previous);
+    }
+    index.computeIfAbsent(NameIndex.toKey(name), key -> {
+      sortedNames = sortedNames.with(name);
+      return new IndexedName(name);
+    }).uuids.add(uuid);
+  }
+
+  void remove(UUID uuid) {
+    String previous = names.remove(uuid);
+    if (previous != null) {
+      unindex(uuid, previous);
+    }
+  }
+
+  /**
+   * Finds the players with a name, ignoring case. The cached names are tried
+   * first, dropping players the server's user cache knows under another name by
+   * now. Only when none are left is the user cache searched by name, since the
+   * player who has the name now may have been evicted. The user cache is only
+   * read from memory, never asking Mojang's servers.
+   *
+   * @return The UUIDs of the players, empty if the name is not known
+   */
+  List<UUID> findUuids(String name) {
+    String key = NameIndex.toKey(name);
+    IndexedName indexed = index.get(key);
+    List<UUID> uuids = indexed != null ? new ArrayList<>(indexed.uuids) : new ArrayList<>();
+    UserCache userCache = server != null ? server.getUserCache() : null;
+    if (userCache == null) {
+      return uuids;
+    }
+
+    List<UUID> current = new ArrayList<>(uuids.size());
+    for (UUID uuid : uuids) {
+      Optional<String> cachedName = userCache.getByUuid(uuid).map(GameProfile::getName);
+      if (cachedName.isEmpty() || cachedName.get().equalsIgnoreCase(name)) {
+        current.add(uuid);
+      }
+    }
+    if (!current.isEmpty()) {
+      return current;
+    }
+
+    Object entry = ((UserCacheAccessor) userCache).getByName().get(key);
+    if (entry != null) {
+      return List.of(((UserCacheEntryAccessor) entry).getProfile().getId());
+    }
+    return uuids;
+  }
+
+  /**
+   * Gets the cached names, one per lower case form. The index is never
+   * modified, a new one replaces it when the names change.
+   */
+  NameIndex sortedNames() {
+    return sortedNames;
+  }
+
+  void clear() {
+    names.clear();
+    index.clear();
+    sortedNames = NameIndex.EMPTY;
+  }
+
+  private void unindex(UUID uuid, String name) {
+    String key = NameIndex.toKey(name);
+    IndexedName indexed = index.get(key);
+    if (indexed != null && indexed.uuids.remove(uuid) && indexed.uuids.isEmpty()) {
+      index.remove(key);
+      sortedNames = sortedNames.without(indexed.name);
+    }
+  }
+}
@@ -0,0 +1,38 @@
+package samethope.inventory_shuffle.data;
+
+import java.util.*;
+
+/**
+ * Immutable copy of the saved mod state for the sharded layout, holding the
+ * members of only the groups whose shards changed
+ *
+ * @param version Mutation version of the state the snapshot was taken at
+ * @param groups  Options and timers of every group
+ * @param shards  UUIDs of the members of every changed group by group ID, as
+ *                pairs of the most and least significant bits
+ */
+public record ShardedSnapshot(long version, List<StateSnapshot.GroupEntry> groups, Map<Integer, long[]> shards) {
+
+  /**
+   * Adds the shards of an older snapshot that was never written, for groups
+   * that still exist and did not change since. Their contents are still
+   * current, since any change would have marked their shards again.
+   *
+   * @param older The replaced snapshot
+   * @return A snapshot holding the shards of both
+   */
+  public ShardedSnapshot withUnwrittenShards(ShardedSnapshot older) {
+    Set<Integer> groupIds = new HashSet<>();
+    for (StateSnapshot.GroupEntry group : groups) {
+      groupIds.add(group.id());
+    }
+
+    Map<Integer, long[]> merged = new HashMap<>(shards);
+    for (Map.Entry<Integer, long[]> shard : older.shards().entrySet()) {
+      if (groupIds.contains(shard.getKey())) {
+        merged.putIfAbsent(shard.getKey(), shard.getValue());
+      }
+    }
+    return new ShardedSnapshot(version, groups, Collections.unmodifiableMap(merged));
+  }
+}
@@ -0,0 +1,201 @@
+package samethope.inventory_shuffle.data;
+
+import samethope.inventory_shuffle.InventoryShuffle;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.stream.Stream;
+
+/**
+ * Sharded layout of the saved state: a directory holding a small manifest and
+ * one shard file per group.
+ * <p>
+ * The manifest holds the journal sequence and the ID, name and timer of every
+ * group, so renaming or deleting a group and saving timers only rewrite the
+ * manifest. Each shard holds the options and members of one group and is named
+ * after the group ID, so it is only rewritten when that group changes. Shards
+ * are written before the manifest, and shards of groups missing from the
+ * manifest are deleted after it.
+ */
+public final class ShardedStateFormat {
+  public static final String MANIFEST_FILE = "manifest.dat";
+  public static final int MANIFEST_MAGIC = 0x4953484D; // "ISHM"
+  public static final int SHARD_MAGIC = 0x49534847; // "ISHG"
+  public static final int FORMAT_VERSION = 1;
+
+  private static final String SHARD_PREFIX = "group-";
+  private static final String SHARD_SUFFIX = ".dat";
+
+  private ShardedStateFormat() {
+  }
+
+  /**
+   * A group as listed in the manifest
+   */
+  private record ManifestEntry(int id, String name, int ticksLeft) {
+  }
+
+  /**
+   * The options and members read from a shard
+   */
+  private record Shard(ManifestEntry entry, boolean enabled, int interval, int optionFlags, long[] members) {
+  }
+
+  /**
+   * Gets the file name of the shard of a group
+   */
+  public static String getShardFileName(int groupId) {
+    return SHARD_PREFIX + groupId + SHARD_SUFFIX;
+  }
+
+  /**
+   * Writes the manifest of a snapshot
+   *
+   * @param snapshot The snapshot to write
+   * @param out      Stream to write to, not closed
+   * @param compress Whether to deflate compress the body
+   */
+  public static void writeManifest(ShardedSnapshot snapshot, OutputStream out, boolean compress)
+      throws IOException {
+    try (DataOutputStream body = StateFormat.openBody(out, MANIFEST_MAGIC, FORMAT_VERSION, compress)) {
+      body.writeLong(snapshot.version());
+      body.writeInt(snapshot.groups().size());
+      for (StateSnapshot.GroupEntry group : snapshot.groups()) {
+        body.writeInt(group.id());
+        body.writeUTF(group.name());
+        body.writeInt(group.ticksLeft());
+      }
+    }
+  }
+
+  /**
+   * Writes the shard of a group
+   *
+   * @param group    The group's options
+   * @param members  UUIDs of the group's members as pairs of the most and least
+   *                 significant bits
+   * @param out      Stream to write to, not closed
+   * @param compress Whether to deflate compress the body
+   */
+  public static void writeShard(StateSnapshot.GroupEntry group, long[] members, OutputStream out, boolean compress)
+      throws IOException {
+    try (DataOutputStream body = StateFormat.openBody(out, SHARD_MAGIC, FORMAT_VERSION, compress)) {
+      body.writeInt(group.id());
+      body.writeBoolean(group.enabled());
+      body.writeInt(group.interval());
+      body.writeByte(group.optionFlags());
+      body.writeInt(members.length / 2);
+      for (long bits : members) {
+        body.writeLong(bits);
+      }
+    }
+  }
+
+  /**
+   * Lists the shard files in a state directory that belong to none of the
+   * groups of a snapshot
+   */
+  public static List<Path> findOrphanShards(Path directory, ShardedSnapshot snapshot) throws IOException {
+    Set<String> expected = new HashSet<>();
+    for (StateSnapshot.GroupEntry group : snapshot.groups()) {
+      expected.add(getShardFileName(group.id()));
+    }
+
+    List<Path> orphans = new ArrayList<>();
+    try (Stream<Path> files = Files.list(directory)) {
+      files.forEach(file -> {
+        String fileName = file.getFileName().toString();
+        if (fileName.startsWith(SHARD_PREFIX) && fileName.endsWith(SHARD_SUFFIX) && !expected.contains(fileName)) {
+          orphans.add(file);
+        }
+      });
+    }
+    return orphans;
+  }
+
+  /**
+   * Reads a state directory, loading the shards in parallel and passing them to
+   * the visitor in manifest order on the calling thread
+   *
+   * @param directory The state directory
+   * @param visitor   Receiver of the contents
+   * @return false if the directory holds no valid manifest
+   */
+  public static boolean read(Path directory, StateFormat.Visitor visitor) throws IOException {
+    long journalSequence;
+    List<ManifestEntry> entries = new ArrayList<>();
+    try (DataInputStream in = new DataInputStream(
+        new BufferedInputStream(Files.newInputStream(directory.resolve(MANIFEST_FILE))))) {
+      if (in.readInt() != MANIFEST_MAGIC) {
+        return false;
+      }
+      StateFormat.readVersion(in, FORMAT_VERSION);
+      try (DataInputStream body = StateFormat.openBody(in)) {
+        journalSequence = body.readLong();
+        int groupCount = body.readInt();
+        for (int i = 0; i < groupCount; i++) {
+          entries.add(new ManifestEntry(body.readInt(), body.readUTF(), body.readInt()));
+        }
+      }
+    } catch (EOFException e) {
+      return false;
+    }
+
+    List<Shard> shards;
+    try {
+      shards = entries.parallelStream().map(entry -> {
+        try {
+          return readShard(directory, entry);
+        } catch (IOException e) {
+          throw new UncheckedIOException(e);
+        }
+      }).toList();
+    } catch (UncheckedIOException e) {
+      throw e.getCause();
+    }
+
+    visitor.journalSequence(journalSequence);
+    for (Shard shard : shards) {
+      visitor.group(new StateSnapshot.GroupEntry(shard.entry().id(), shard.entry().name(), shard.enabled(),
+          shard.interval(), shard.optionFlags(), shard.entry().ticksLeft()));
+    }
+    for (Shard shard : shards) {
+      long[] members = shard.members();
+      for (int i = 0; i < members.length; i += 2) {
+        visitor.member(members[i], members[i + 1], shard.entry().id());
+      }
+    }
+    return true;
+  }
+
+  private static Shard readShard(Path directory, ManifestEntry entry) throws IOException {
+    Path shardPath = directory.resolve(getShardFileName(entry.id()));
+    try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(shardPath)))) {
+      if (in.readInt() != SHARD_MAGIC) {
+        throw new IOException("Not a group shard: " + shardPath);
+      }
+      StateFormat.readVersion(in, FORMAT_VERSION);
+      try (DataInputStream body = StateFormat.openBody(in)) {
+        if (body.readInt() != entry.id()) {
+          throw new IOException("Shard " + shardPath + " belongs to another group");
+        }
+        boolean enabled = body.readBoolean();
+        int interval = body.readInt();
+        int optionFlags = body.readUnsignedByte();
+        long[] members = new long[2 * body.readInt()];
+        for (int i = 0; i < members.length; i++) {
+          members[i] = body.readLong();
+        }
+        return new Shard(entry, enabled, interval, optionFlags, members);
+      }
+    } catch (NoSuchFileException e) {
+      // Keep the group with default options rather than failing the whole load
+      InventoryShuffle.LOGGER.warn("Missing shard for group {}, using default options", entry.name());
+      ShuffleGroup defaults = new ShuffleGroup(entry.id(), entry.name());
+      return new Shard(entry, defaults.isEnabled(), defaults.getInterval(), defaults.getOptionFlags(), new long[0]);
+    }
+  }
+}
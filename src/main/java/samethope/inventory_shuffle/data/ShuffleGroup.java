@@ -1,12 +1,31 @@
 package samethope.inventory_shuffle.data;
 
-import net.minecraft.nbt.NbtCompound;
 import samethope.inventory_shuffle.config.InventoryShuffleConfig;
 
+import java.util.UUID;
+
 /**
  * Represents a group of players who share the same inventory shuffling options
  */
 public class ShuffleGroup {
+  // Bits of the packed slot and scheduling options, used by the state file, the
+  // journal and transfers
+  public static final int FLAG_SHUFFLE_EMPTY_SLOTS = 1;
+  public static final int FLAG_SHUFFLE_INVENTORY = 1 << 1;
+  public static final int FLAG_SHUFFLE_HOTBAR = 1 << 2;
+  public static final int FLAG_SHUFFLE_HAND = 1 << 3;
+  public static final int FLAG_SHUFFLE_OFFHAND = 1 << 4;
+  public static final int FLAG_SPREAD = 1 << 5;
+  // Options of a new group, packed like the above
+  public static final int DEFAULT_OPTION_FLAGS =
+      (InventoryShuffleConfig.DEFAULT_SHUFFLE_EMPTY_SLOTS ? FLAG_SHUFFLE_EMPTY_SLOTS : 0)
+      | (InventoryShuffleConfig.DEFAULT_SHUFFLE_INVENTORY ? FLAG_SHUFFLE_INVENTORY : 0)
+      | (InventoryShuffleConfig.DEFAULT_SHUFFLE_HOTBAR ? FLAG_SHUFFLE_HOTBAR : 0)
+      | (InventoryShuffleConfig.DEFAULT_SHUFFLE_HAND ? FLAG_SHUFFLE_HAND : 0)
+      | (InventoryShuffleConfig.DEFAULT_SHUFFLE_OFFHAND ? FLAG_SHUFFLE_OFFHAND : 0)
+      | (InventoryShuffleConfig.DEFAULT_SPREAD ? FLAG_SPREAD : 0);
+
+  private final int id;
   private final String name;
   private boolean enabled = InventoryShuffleConfig.DEFAULT_ENABLED;
   private int interval = InventoryShuffleConfig.DEFAULT_SHUFFLE_INTERVAL;
@@ -15,53 +34,99 @@ public class ShuffleGroup {
   private boolean shuffleHotbar = InventoryShuffleConfig.DEFAULT_SHUFFLE_HOTBAR;
   private boolean shuffleHand = InventoryShuffleConfig.DEFAULT_SHUFFLE_HAND;
   private boolean shuffleOffhand = InventoryShuffleConfig.DEFAULT_SHUFFLE_OFFHAND;
+  private boolean spread = InventoryShuffleConfig.DEFAULT_SPREAD;
 
+  // Ticks left in the current interval while disabled, otherwise the interval
+  // ends at the absolute scheduler tick stored in deadline
   private int ticksLeft;
+  private long deadline = -1;
+  private SlotPlan slotPlan;
+
+  boolean scheduled;
+  int scheduleGeneration;
 
   /**
    * Creates a new shuffle group with default options
    * 
+   * @param id   The ID of the group
    * @param name The name of the group
    */
-  public ShuffleGroup(String name) {
+  public ShuffleGroup(int id, String name) {
+    this.id = id;
     this.name = name;
-    this.ticksLeft = interval;
+    resumeTimer(interval);
+    rebuildSlotPlan();
   }
 
   /**
-   * Creates a shuffle group from NBT data
+   * Creates a shuffle group from saved options
    * 
-   * @param name The name of the group
-   * @param nbt  The NBT compound containing the group's options
+   * @param id          The ID of the group
+   * @param name        The name of the group
+   * @param enabled     Whether the group is enabled
+   * @param interval    The shuffle interval in ticks
+   * @param optionFlags The packed slot and scheduling options
+   * @param ticksLeft   Ticks left in the current interval
    */
-  public ShuffleGroup(String name, NbtCompound nbt) {
+  public ShuffleGroup(int id, String name, boolean enabled, int interval, int optionFlags, int ticksLeft) {
+    this.id = id;
     this.name = name;
-    this.enabled = nbt.getBoolean("Enabled");
-    this.interval = nbt.getInt("Interval");
-    this.shuffleEmptySlots = nbt.getBoolean("ShuffleEmptySlots");
-    this.shuffleInventory = nbt.getBoolean("ShuffleInventory");
-    this.shuffleHotbar = nbt.getBoolean("ShuffleHotbar");
-    this.shuffleHand = nbt.getBoolean("ShuffleHand");
-    this.shuffleOffhand = nbt.getBoolean("ShuffleOffhand");
-    this.ticksLeft = nbt.getInt("TicksLeft");
+    this.enabled = enabled;
+    this.interval = interval;
+    this.shuffleEmptySlots = (optionFlags & FLAG_SHUFFLE_EMPTY_SLOTS) != 0;
+    this.shuffleInventory = (optionFlags & FLAG_SHUFFLE_INVENTORY) != 0;
+    this.shuffleHotbar = (optionFlags & FLAG_SHUFFLE_HOTBAR) != 0;
+    this.shuffleHand = (optionFlags & FLAG_SHUFFLE_HAND) != 0;
+    this.shuffleOffhand = (optionFlags & FLAG_SHUFFLE_OFFHAND) != 0;
+    this.spread = (optionFlags & FLAG_SPREAD) != 0;
+    resumeTimer(ticksLeft);
+    rebuildSlotPlan();
   }
 
   /**
-   * Converts this group's options to NBT data
-   * 
-   * @return NBT compound containing the group's options
+   * Packs the slot and scheduling options of this group into bit flags
    */
-  public NbtCompound toNbt() {
-    NbtCompound nbt = new NbtCompound();
-    nbt.putBoolean("Enabled", enabled);
-    nbt.putInt("Interval", interval);
-    nbt.putBoolean("ShuffleEmptySlots", shuffleEmptySlots);
-    nbt.putBoolean("ShuffleInventory", shuffleInventory);
-    nbt.putBoolean("ShuffleHotbar", shuffleHotbar);
-    nbt.putBoolean("ShuffleHand", shuffleHand);
-    nbt.putBoolean("ShuffleOffhand", shuffleOffhand);
-    nbt.putInt("TicksLeft", ticksLeft);
-    return nbt;
+  public int getOptionFlags() {
+    return (shuffleEmptySlots ? FLAG_SHUFFLE_EMPTY_SLOTS : 0)
+        | (shuffleInventory ? FLAG_SHUFFLE_INVENTORY : 0)
+        | (shuffleHotbar ? FLAG_SHUFFLE_HOTBAR : 0)
+        | (shuffleHand ? FLAG_SHUFFLE_HAND : 0)
+        | (shuffleOffhand ? FLAG_SHUFFLE_OFFHAND : 0)
+        | (spread ? FLAG_SPREAD : 0);
+  }
+
+  /**
+   * Applies packed options at once, notifying the state a single time and only
+   * if any of them changed
+   */
+  public void applyOptions(boolean enabled, int interval, int optionFlags) {
+    boolean intervalChanged = interval != this.interval;
+    if (!intervalChanged && enabled == this.enabled && optionFlags == getOptionFlags()) {
+      return;
+    }
+
+    // A new interval starts over, otherwise the current one carries on
+    int remaining = intervalChanged ? interval : getTicksLeft();
+    this.enabled = enabled;
+    this.interval = interval;
+    this.shuffleEmptySlots = (optionFlags & FLAG_SHUFFLE_EMPTY_SLOTS) != 0;
+    this.shuffleInventory = (optionFlags & FLAG_SHUFFLE_INVENTORY) != 0;
+    this.shuffleHotbar = (optionFlags & FLAG_SHUFFLE_HOTBAR) != 0;
+    this.shuffleHand = (optionFlags & FLAG_SHUFFLE_HAND) != 0;
+    this.shuffleOffhand = (optionFlags & FLAG_SHUFFLE_OFFHAND) != 0;
+    this.spread = (optionFlags & FLAG_SPREAD) != 0;
+    resumeTimer(remaining);
+    rebuildSlotPlan();
+    ShuffleScheduler.reschedule(this);
+    ModState.onGroupChanged(this);
+  }
+
+  /**
+   * Gets the dense numeric ID the group is stored under, which stays the same
+   * when the group is renamed
+   */
+  public int getId() {
+    return id;
   }
 
   public String getName() {
@@ -73,7 +138,13 @@ public class ShuffleGroup {
   }
 
   public void setEnabled(boolean enabled) {
-    this.enabled = enabled;
+    if (enabled != this.enabled) {
+      int remaining = getTicksLeft();
+      this.enabled = enabled;
+      resumeTimer(remaining);
+      ShuffleScheduler.reschedule(this);
+      ModState.onGroupChanged(this);
+    }
   }
 
   public int getInterval() {
@@ -81,8 +152,13 @@ public class ShuffleGroup {
   }
 
   public void setInterval(int interval) {
+    if (interval == this.interval) {
+      return;
+    }
     this.interval = interval;
-    this.ticksLeft = interval;
+    resumeTimer(interval);
+    ShuffleScheduler.reschedule(this);
+    ModState.onGroupChanged(this);
   }
 
   public boolean isShuffleEmptySlots() {
@@ -90,7 +166,11 @@ public class ShuffleGroup {
   }
 
   public void setShuffleEmptySlots(boolean shuffleEmptySlots) {
+    if (shuffleEmptySlots == this.shuffleEmptySlots) {
+      return;
+    }
     this.shuffleEmptySlots = shuffleEmptySlots;
+    ModState.onGroupChanged(this);
   }
 
   public boolean isShuffleInventory() {
@@ -98,7 +178,12 @@ public class ShuffleGroup {
   }
 
   public void setShuffleInventory(boolean shuffleInventory) {
+    if (shuffleInventory == this.shuffleInventory) {
+      return;
+    }
     this.shuffleInventory = shuffleInventory;
+    rebuildSlotPlan();
+    ModState.onGroupChanged(this);
   }
 
   public boolean isShuffleHotbar() {
@@ -106,7 +191,12 @@ public class ShuffleGroup {
   }
 
   public void setShuffleHotbar(boolean shuffleHotbar) {
+    if (shuffleHotbar == this.shuffleHotbar) {
+      return;
+    }
     this.shuffleHotbar = shuffleHotbar;
+    rebuildSlotPlan();
+    ModState.onGroupChanged(this);
   }
 
   public boolean isShuffleHand() {
@@ -114,7 +204,12 @@ public class ShuffleGroup {
   }
 
   public void setShuffleHand(boolean shuffleHand) {
+    if (shuffleHand == this.shuffleHand) {
+      return;
+    }
     this.shuffleHand = shuffleHand;
+    rebuildSlotPlan();
+    ModState.onGroupChanged(this);
   }
 
   public boolean isShuffleOffhand() {
@@ -122,28 +217,108 @@ public class ShuffleGroup {
   }
 
   public void setShuffleOffhand(boolean shuffleOffhand) {
+    if (shuffleOffhand == this.shuffleOffhand) {
+      return;
+    }
     this.shuffleOffhand = shuffleOffhand;
+    rebuildSlotPlan();
+    ModState.onGroupChanged(this);
+  }
+
+  public boolean isSpread() {
+    return spread;
+  }
+
+  public void setSpread(boolean spread) {
+    if (spread == this.spread) {
+      return;
+    }
+    this.spread = spread;
+    ShuffleScheduler.reschedule(this);
+    ModState.onGroupChanged(this);
+  }
+
+  /**
+   * Gets the stable phase of a player inside this group's interval, used to
+   * spread shuffles evenly across ticks
+   *
+   * @param uuid The player's UUID
+   * @return Phase between 0 (inclusive) and the interval (exclusive)
+   */
+  public int getShufflePhase(UUID uuid) {
+    return Math.floorMod(uuid.hashCode(), interval);
+  }
+
+  /**
+   * Gets the phase whose players are due for a shuffle on this tick when
+   * spreading is enabled. Every phase comes up exactly once per interval, and
+   * the last phase comes up on the same tick {@link #shouldShuffle()} fires.
+   *
+   * @return Phase between 0 (inclusive) and the interval (exclusive), or -1 if
+   *         the group is disabled
+   */
+  public int getCurrentPhase() {
+    return enabled ? interval - 1 - getTicksLeft() : -1;
+  }
+
+  /**
+   * Gets the precompiled slot plan for this group's current options
+   */
+  public SlotPlan getSlotPlan() {
+    return slotPlan;
+  }
+
+  private void rebuildSlotPlan() {
+    this.slotPlan = SlotPlan.compile(shuffleHotbar, shuffleHand, shuffleInventory, shuffleOffhand);
   }
 
   /**
-   * Decrements the tick counter if shuffling is enabled
+   * Gets the number of ticks left until the current interval ends
    */
-  public void tick() {
-    if (enabled && ticksLeft > 0) {
-      ticksLeft--;
+  public int getTicksLeft() {
+    if (!enabled) {
+      return ticksLeft;
     }
+    return (int) Math.max(0L, deadline - ShuffleScheduler.getCurrentTick());
+  }
+
+  /**
+   * Gets the absolute scheduler tick at which the current interval ends, or -1
+   * while the group is disabled
+   */
+  public long getDeadline() {
+    return deadline;
   }
 
   /**
-   * Checks if this group should shuffle inventories now
+   * Checks if this group's interval has elapsed, starting the next interval if
+   * it has
    * 
    * @return true if it's time to shuffle, false otherwise
    */
   public boolean shouldShuffle() {
-    if (enabled && ticksLeft <= 0) {
-      ticksLeft = interval;
+    long now = ShuffleScheduler.getCurrentTick();
+    if (enabled && deadline <= now) {
+      deadline = now + interval;
       return true;
     }
     return false;
   }
-}
\ No newline at end of file
+
+  /**
+   * Copies the remaining ticks of another group's current interval
+   */
+  void copyTimerFrom(ShuffleGroup other) {
+    resumeTimer(other.getTicksLeft());
+  }
+
+  private void resumeTimer(int remaining) {
+    if (enabled) {
+      this.ticksLeft = 0;
+      this.deadline = ShuffleScheduler.getCurrentTick() + remaining;
+    } else {
+      this.ticksLeft = remaining;
+      this.deadline = -1;
+    }
+  }
+}
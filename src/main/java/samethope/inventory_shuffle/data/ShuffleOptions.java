@@ -82,6 +82,16 @@ public enum ShuffleOptions {
       }
       return false;
     }
+  },
+  SPREAD("spread") {
+    @Override
+    public boolean applyTo(ShuffleGroup group, Object value) {
+      if (value instanceof Boolean boolValue) {
+        group.setSpread(boolValue);
+        return true;
+      }
+      return false;
+    }
   };
 
   private final String key;
@@ -0,0 +1,101 @@
+package samethope.inventory_shuffle.data;
+
+import java.util.PriorityQueue;
+
+/**
+ * Deadline queue that wakes shuffle groups only on the ticks they have work on,
+ * so the per-tick cost depends on the number of due groups instead of the
+ * number of existing groups
+ */
+public final class ShuffleScheduler {
+  private static final PriorityQueue<Wakeup> queue = new PriorityQueue<>();
+  private static long currentTick;
+
+  /**
+   * A queued wakeup, stale once the group has been rescheduled or detached
+   */
+  private record Wakeup(long tick, ShuffleGroup group, int generation) implements Comparable<Wakeup> {
+    @Override
+    public int compareTo(Wakeup other) {
+      return Long.compare(tick, other.tick);
+    }
+
+    boolean isCurrent() {
+      return group.scheduled && group.scheduleGeneration == generation;
+    }
+  }
+
+  private ShuffleScheduler() {
+  }
+
+  /**
+   * Gets the number of ticks processed by the scheduler since startup
+   */
+  public static long getCurrentTick() {
+    return currentTick;
+  }
+
+  /**
+   * Advances the scheduler by one tick
+   */
+  static void advance() {
+    currentTick++;
+  }
+
+  /**
+   * Starts scheduling a group that was added to the mod state
+   */
+  static void attach(ShuffleGroup group) {
+    group.scheduled = true;
+    reschedule(group);
+  }
+
+  /**
+   * Stops scheduling a group that was removed from the mod state
+   */
+  static void detach(ShuffleGroup group) {
+    group.scheduled = false;
+    group.scheduleGeneration++;
+  }
+
+  /**
+   * Queues the next wakeup of a group, invalidating any previously queued one.
+   * Disabled groups are not queued, spread groups wake every tick and other
+   * groups wake once their interval ends.
+   */
+  static void reschedule(ShuffleGroup group) {
+    if (!group.scheduled) {
+      return;
+    }
+
+    int generation = ++group.scheduleGeneration;
+    if (!group.isEnabled()) {
+      return;
+    }
+
+    long tick = group.isSpread() ? currentTick + 1 : group.getDeadline();
+    queue.add(new Wakeup(tick, group, generation));
+  }
+
+  /**
+   * Removes the next group that is due on the current tick
+   *
+   * @return The due group, or null if no more groups are due
+   */
+  static ShuffleGroup pollDue() {
+    while (!queue.isEmpty() && queue.peek().tick() <= currentTick) {
+      Wakeup wakeup = queue.poll();
+      if (wakeup.isCurrent()) {
+        return wakeup.group();
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Drops every queued wakeup
+   */
+  static void clear() {
+    queue.clear();
+  }
+}
@@ -0,0 +1,83 @@
+package samethope.inventory_shuffle.data;
+
+/**
+ * Precompiled set of inventory slots a group shuffles, stored as a bitmask over
+ * the 41 player inventory slots
+ */
+public final class SlotPlan {
+  public static final long HOTBAR_MASK = 0x1FFL;
+  public static final long INVENTORY_MASK = ((1L << 36) - 1) & ~HOTBAR_MASK;
+  public static final long OFFHAND_MASK = 1L << 40;
+
+  /**
+   * How the currently selected hotbar slot is treated, since it changes at
+   * runtime and cannot be baked into the mask
+   */
+  public enum HandMode {
+    NONE,
+    INCLUDE,
+    EXCLUDE
+  }
+
+  private final long mask;
+  private final HandMode handMode;
+
+  private SlotPlan(long mask, HandMode handMode) {
+    this.mask = mask;
+    this.handMode = handMode;
+  }
+
+  /**
+   * Compiles the slot options of a group into a plan
+   */
+  public static SlotPlan compile(boolean shuffleHotbar, boolean shuffleHand, boolean shuffleInventory,
+      boolean shuffleOffhand) {
+    long mask = 0L;
+    HandMode handMode = HandMode.NONE;
+
+    if (shuffleHotbar) {
+      mask |= HOTBAR_MASK;
+      if (!shuffleHand) {
+        handMode = HandMode.EXCLUDE;
+      }
+    } else if (shuffleHand) {
+      handMode = HandMode.INCLUDE;
+    }
+
+    if (shuffleInventory) {
+      mask |= INVENTORY_MASK;
+    }
+
+    if (shuffleOffhand) {
+      mask |= OFFHAND_MASK;
+    }
+
+    return new SlotPlan(mask, handMode);
+  }
+
+  /**
+   * Resolves the plan against the player's selected hotbar slot
+   *
+   * @param selectedSlot The selected hotbar slot
+   * @return Bitmask of the slots to shuffle
+   */
+  public long resolve(int selectedSlot) {
+    return switch (handMode) {
+      case NONE -> mask;
+      case INCLUDE -> mask | (1L << selectedSlot);
+      case EXCLUDE -> mask & ~(1L << selectedSlot);
+    };
+  }
+
+  public long getMask() {
+    return mask;
+  }
+
+  public HandMode getHandMode() {
+    return handMode;
+  }
+
+  public boolean isEmpty() {
+    return mask == 0L && handMode != HandMode.INCLUDE;
+  }
+}
@@ -0,0 +1,309 @@
+package samethope.inventory_shuffle.data;
+
+import net.minecraft.nbt.NbtCompound;
+import net.minecraft.nbt.NbtIo;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Versioned binary layout of the state file.
+ * <p>
+ * The file starts with a magic number, the format version and a flags byte
+ * telling whether the rest is deflate compressed. The body holds the journal
+ * sequence, a table of the group names, the groups with their packed options
+ * and finally every member as the two halves of their UUID and their group ID.
+ * Player names are not stored, they are looked up in the server's user cache
+ * when needed.
+ * <p>
+ * Files written before this format existed are uncompressed NBT and are read by
+ * {@link #fromLegacyNbt}, the next save rewrites them in this format.
+ */
+public final class StateFormat {
+  public static final int MAGIC = 0x49534846; // "ISHF"
+  public static final int FORMAT_VERSION = 1;
+
+  private static final int FLAG_DEFLATE = 1;
+
+  private StateFormat() {
+  }
+
+  /**
+   * Writes a snapshot
+   *
+   * @param snapshot The snapshot to write
+   * @param out      Stream to write to, not closed
+   * @param compress Whether to deflate compress the body
+   */
+  public static void write(StateSnapshot snapshot, OutputStream out, boolean compress) throws IOException {
+    try (DataOutputStream body = openBody(out, MAGIC, FORMAT_VERSION, compress)) {
+      writeBody(snapshot, body);
+    }
+  }
+
+  private static void writeBody(StateSnapshot snapshot, DataOutputStream body) throws IOException {
+    body.writeLong(snapshot.version());
+
+    Map<String, Integer> stringIndices = new HashMap<>();
+    List<String> strings = new ArrayList<>();
+    int[] groupNameIndices = new int[snapshot.groups().size()];
+    for (int i = 0; i < groupNameIndices.length; i++) {
+      groupNameIndices[i] = intern(snapshot.groups().get(i).name(), stringIndices, strings);
+    }
+
+    body.writeInt(strings.size());
+    for (String string : strings) {
+      body.writeUTF(string);
+    }
+
+    body.writeInt(groupNameIndices.length);
+    for (int i = 0; i < groupNameIndices.length; i++) {
+      StateSnapshot.GroupEntry group = snapshot.groups().get(i);
+      body.writeInt(group.id());
+      body.writeInt(groupNameIndices[i]);
+      body.writeBoolean(group.enabled());
+      body.writeInt(group.interval());
+      body.writeByte(group.optionFlags());
+      body.writeInt(group.ticksLeft());
+    }
+
+    long[] uuids = snapshot.memberUuids();
+    int[] groupIds = snapshot.memberGroupIds();
+    int memberCount = snapshot.memberCount();
+    body.writeInt(memberCount);
+    for (int i = 0; i < memberCount; i++) {
+      body.writeLong(uuids[2 * i]);
+      body.writeLong(uuids[2 * i + 1]);
+      body.writeInt(groupIds[i]);
+    }
+  }
+
+  /**
+   * Writes the header of a binary file and opens a stream for its body. Closing
+   * the body stream finishes the compression but leaves {@code out} open.
+   */
+  static DataOutputStream openBody(OutputStream out, int magic, int version, boolean compress) throws IOException {
+    DataOutputStream header = new DataOutputStream(out);
+    header.writeInt(magic);
+    header.writeShort(version);
+    header.writeByte(compress ? FLAG_DEFLATE : 0);
+    header.flush();
+
+    OutputStream target = new FilterOutputStream(out) {
+      @Override
+      public void write(byte[] bytes, int offset, int length) throws IOException {
+        out.write(bytes, offset, length);
+      }
+
+      @Override
+      public void close() throws IOException {
+        flush();
+      }
+    };
+    if (compress) {
+      target = new DeflaterOutputStream(target);
+    }
+    return new DataOutputStream(new BufferedOutputStream(target, 1 << 16));
+  }
+
+  /**
+   * Reads the version of a binary file whose magic number was already read
+   *
+   * @throws IOException If the file was written by a newer version of the mod
+   */
+  static int readVersion(DataInputStream in, int supportedVersion) throws IOException {
+    int version = in.readUnsignedShort();
+    if (version > supportedVersion) {
+      throw new IOException("File format " + version + " is newer than the supported format " + supportedVersion);
+    }
+    return version;
+  }
+
+  /**
+   * Opens a stream for the body of a binary file whose version was already read.
+   * Closing it closes {@code in} and releases the inflater of a compressed body.
+   */
+  static DataInputStream openBody(DataInputStream in) throws IOException {
+    int flags = in.readUnsignedByte();
+    return (flags & FLAG_DEFLATE) != 0
+        ? new DataInputStream(new BufferedInputStream(new InflaterInputStream(in), 1 << 16))
+        : in;
+  }
+
+  /**
+   * Receives the contents of a state file as it is read. Groups are always
+   * passed before members.
+   */
+  public interface Visitor {
+    void journalSequence(long sequence);
+
+    void group(StateSnapshot.GroupEntry group);
+
+    void member(long mostBits, long leastBits, int groupId);
+  }
+
+  /**
+   * Reads a state file in either the binary or the legacy NBT layout into a
+   * snapshot
+   *
+   * @param filePath Path of the state file
+   * @return The saved state, or null if the file holds no valid state
+   */
+  public static StateSnapshot read(Path filePath) throws IOException {
+    long[] journalSequence = { 0L };
+    List<StateSnapshot.GroupEntry> groups = new ArrayList<>();
+    long[][] uuids = { new long[64] };
+    int[][] groupIds = { new int[32] };
+    int[] memberCount = { 0 };
+
+    boolean valid = read(filePath, new Visitor() {
+      @Override
+      public void journalSequence(long sequence) {
+        journalSequence[0] = sequence;
+      }
+
+      @Override
+      public void group(StateSnapshot.GroupEntry group) {
+        groups.add(group);
+      }
+
+      @Override
+      public void member(long mostBits, long leastBits, int groupId) {
+        int i = memberCount[0]++;
+        if (i == groupIds[0].length) {
+          uuids[0] = Arrays.copyOf(uuids[0], 4 * i);
+          groupIds[0] = Arrays.copyOf(groupIds[0], 2 * i);
+        }
+        uuids[0][2 * i] = mostBits;
+        uuids[0][2 * i + 1] = leastBits;
+        groupIds[0][i] = groupId;
+      }
+    });
+
+    return valid ? new StateSnapshot(journalSequence[0], List.copyOf(groups),
+        Arrays.copyOf(uuids[0], 2 * memberCount[0]), Arrays.copyOf(groupIds[0], memberCount[0])) : null;
+  }
+
+  /**
+   * Streams a state file in either the binary or the legacy NBT layout to a
+   * visitor, without holding the member table in memory for the binary layout
+   *
+   * @param filePath Path of the state file
+   * @param visitor  Receiver of the contents
+   * @return false if the file holds no valid state
+   */
+  public static boolean read(Path filePath, Visitor visitor) throws IOException {
+    try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(filePath)))) {
+      if (in.readInt() == MAGIC) {
+        read(in, visitor);
+        return true;
+      }
+    } catch (EOFException e) {
+      return false;
+    }
+
+    NbtCompound rootNbt = NbtIo.read(filePath);
+    if (rootNbt == null) {
+      return false;
+    }
+
+    StateSnapshot snapshot = fromLegacyNbt(rootNbt);
+    visitor.journalSequence(snapshot.version());
+    snapshot.groups().forEach(visitor::group);
+    long[] uuids = snapshot.memberUuids();
+    for (int i = 0; i < snapshot.memberCount(); i++) {
+      visitor.member(uuids[2 * i], uuids[2 * i + 1], snapshot.memberGroupIds()[i]);
+    }
+    return true;
+  }
+
+  private static void read(DataInputStream header, Visitor visitor) throws IOException {
+    readVersion(header, FORMAT_VERSION);
+    try (DataInputStream body = openBody(header)) {
+      visitor.journalSequence(body.readLong());
+
+      String[] strings = new String[body.readInt()];
+      for (int i = 0; i < strings.length; i++) {
+        strings[i] = body.readUTF();
+      }
+
+      int groupCount = body.readInt();
+      for (int i = 0; i < groupCount; i++) {
+        int id = body.readInt();
+        String name = strings[body.readInt()];
+        boolean enabled = body.readBoolean();
+        int interval = body.readInt();
+        int optionFlags = body.readUnsignedByte();
+        int ticksLeft = body.readInt();
+        visitor.group(new StateSnapshot.GroupEntry(id, name, enabled, interval, optionFlags, ticksLeft));
+      }
+
+      int memberCount = body.readInt();
+      for (int i = 0; i < memberCount; i++) {
+        long mostBits = body.readLong();
+        long leastBits = body.readLong();
+        int groupId = body.readInt();
+        visitor.member(mostBits, leastBits, groupId);
+      }
+    }
+  }
+
+  /**
+   * Converts the NBT layout used before the binary format, assigning group IDs
+   * in the order the groups are stored. Those files predate the journal, so
+   * the snapshot starts at journal sequence 0
+   *
+   * @param rootNbt Root compound of a legacy state file
+   * @return The saved state
+   */
+  public static StateSnapshot fromLegacyNbt(NbtCompound rootNbt) {
+    List<StateSnapshot.GroupEntry> groups = new ArrayList<>();
+    Map<String, Integer> groupIds = new HashMap<>();
+    NbtCompound groupsNbt = rootNbt.getCompound("Groups");
+    for (String groupName : groupsNbt.getKeys()) {
+      NbtCompound groupNbt = groupsNbt.getCompound(groupName);
+      int optionFlags = (groupNbt.getBoolean("ShuffleEmptySlots") ? ShuffleGroup.FLAG_SHUFFLE_EMPTY_SLOTS : 0)
+          | (groupNbt.getBoolean("ShuffleInventory") ? ShuffleGroup.FLAG_SHUFFLE_INVENTORY : 0)
+          | (groupNbt.getBoolean("ShuffleHotbar") ? ShuffleGroup.FLAG_SHUFFLE_HOTBAR : 0)
+          | (groupNbt.getBoolean("ShuffleHand") ? ShuffleGroup.FLAG_SHUFFLE_HAND : 0)
+          | (groupNbt.getBoolean("ShuffleOffhand") ? ShuffleGroup.FLAG_SHUFFLE_OFFHAND : 0);
+      int id = groups.size();
+      groupIds.put(groupName, id);
+      groups.add(new StateSnapshot.GroupEntry(id, groupName, groupNbt.getBoolean("Enabled"),
+          groupNbt.getInt("Interval"), optionFlags, groupNbt.getInt("TicksLeft")));
+    }
+
+    NbtCompound playerGroupsNbt = rootNbt.getCompound("PlayerGroups");
+    int memberCount = 0;
+    long[] uuids = new long[2 * playerGroupsNbt.getSize()];
+    int[] memberGroupIds = new int[playerGroupsNbt.getSize()];
+    for (String uuidStr : playerGroupsNbt.getKeys()) {
+      Integer groupId = groupIds.get(playerGroupsNbt.getString(uuidStr));
+      if (groupId == null) {
+        continue;
+      }
+      UUID uuid = UUID.fromString(uuidStr);
+      uuids[2 * memberCount] = uuid.getMostSignificantBits();
+      uuids[2 * memberCount + 1] = uuid.getLeastSignificantBits();
+      memberGroupIds[memberCount] = groupId;
+      memberCount++;
+    }
+
+    return new StateSnapshot(0, groups, Arrays.copyOf(uuids, 2 * memberCount),
+        Arrays.copyOf(memberGroupIds, memberCount));
+  }
+
+  private static int intern(String string, Map<String, Integer> indices, List<String> strings) {
+    Integer index = indices.get(string);
+    if (index == null) {
+      index = strings.size();
+      indices.put(string, index);
+      strings.add(string);
+    }
+    return index;
+  }
+}
@@ -0,0 +1,244 @@
+package samethope.inventory_shuffle.data;
+
+import samethope.inventory_shuffle.InventoryShuffle;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.UUID;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only journal of the mutations of the saved state.
+ * <p>
+ * Every mutation is encoded on the server thread into a pending buffer, which
+ * is handed to the writer at the end of the tick and appended to the journal
+ * file instead of rewriting the whole state. On startup the journal is replayed on top of the last full snapshot,
+ * skipping records the snapshot already contains. Each record is framed as
+ * {@code length, crc32, payload} so a record torn by a crash is detected and
+ * replay stops there.
+ */
+public final class StateJournal {
+  private static final byte CREATE_GROUP = 1;
+  private static final byte DELETE_GROUP = 2;
+  private static final byte RENAME_GROUP = 3;
+  private static final byte GROUP_OPTIONS = 4;
+  private static final byte ADD_PLAYER = 5;
+  private static final byte REMOVE_PLAYER = 6;
+
+  private static final int MAX_RECORD_LENGTH = 1 << 16;
+
+  private static final ByteArrayOutputStream pending = new ByteArrayOutputStream();
+  private static final ByteArrayOutputStream record = new ByteArrayOutputStream();
+  private static final DataOutputStream recordOut = new DataOutputStream(record);
+  private static final CRC32 crc = new CRC32();
+
+  private StateJournal() {
+  }
+
+  static void logCreateGroup(long sequence, String name) {
+    begin(sequence, CREATE_GROUP);
+    writeString(name);
+    end();
+  }
+
+  static void logDeleteGroup(long sequence, String name) {
+    begin(sequence, DELETE_GROUP);
+    writeString(name);
+    end();
+  }
+
+  static void logRenameGroup(long sequence, String oldName, String newName) {
+    begin(sequence, RENAME_GROUP);
+    writeString(oldName);
+    writeString(newName);
+    end();
+  }
+
+  static void logGroupOptions(long sequence, ShuffleGroup group) {
+    begin(sequence, GROUP_OPTIONS);
+    writeString(group.getName());
+    try {
+      recordOut.writeBoolean(group.isEnabled());
+      recordOut.writeInt(group.getInterval());
+      recordOut.writeByte(group.getOptionFlags());
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+    end();
+  }
+
+  static void logAddPlayer(long sequence, UUID uuid, String name, String groupName) {
+    begin(sequence, ADD_PLAYER);
+    writeUuid(uuid);
+    writeString(name != null ? name : "");
+    writeString(groupName);
+    end();
+  }
+
+  static void logRemovePlayer(long sequence, UUID uuid) {
+    begin(sequence, REMOVE_PLAYER);
+    writeUuid(uuid);
+    end();
+  }
+
+  /**
+   * Checks if records were logged since the last drain
+   */
+  static boolean hasPending() {
+    return pending.size() > 0;
+  }
+
+  /**
+   * Takes the records logged since the last call
+   *
+   * @return The encoded records, empty if nothing was logged
+   */
+  static byte[] drainPending() {
+    byte[] records = pending.toByteArray();
+    pending.reset();
+    return records;
+  }
+
+  /**
+   * Drops the records logged since the last drain, used when a full snapshot
+   * already contains them
+   */
+  static void clearPending() {
+    pending.reset();
+  }
+
+  /**
+   * Replays the records of a journal file on top of the loaded state
+   *
+   * @param filePath      Path of the journal file
+   * @param afterSequence Sequence of the last mutation contained in the snapshot,
+   *                      older records are skipped
+   * @return Sequence of the last replayed record, or {@code afterSequence} if
+   *         none was replayed
+   */
+  static long replay(Path filePath, long afterSequence) throws IOException {
+    if (!Files.exists(filePath)) {
+      return afterSequence;
+    }
+
+    long lastSequence = afterSequence;
+    int replayed = 0;
+    try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(filePath)))) {
+      CRC32 checksum = new CRC32();
+      while (true) {
+        int length;
+        try {
+          length = in.readInt();
+        } catch (EOFException e) {
+          break;
+        }
+
+        if (length < 9 || length > MAX_RECORD_LENGTH) {
+          InventoryShuffle.LOGGER.warn("Ignoring malformed tail of the state journal {}", filePath);
+          break;
+        }
+
+        int expectedCrc;
+        byte[] payload;
+        try {
+          expectedCrc = in.readInt();
+          payload = in.readNBytes(length);
+        } catch (EOFException e) {
+          InventoryShuffle.LOGGER.warn("Ignoring torn record at the end of the state journal {}", filePath);
+          break;
+        }
+
+        checksum.reset();
+        checksum.update(payload);
+        if (payload.length != length || (int) checksum.getValue() != expectedCrc) {
+          InventoryShuffle.LOGGER.warn("Ignoring torn record at the end of the state journal {}", filePath);
+          break;
+        }
+
+        DataInputStream recordIn = new DataInputStream(new ByteArrayInputStream(payload));
+        long sequence = recordIn.readLong();
+        if (sequence <= lastSequence) {
+          continue;
+        }
+        if (!apply(recordIn.readByte(), recordIn)) {
+          InventoryShuffle.LOGGER.warn("Ignoring unknown record in the state journal {}", filePath);
+          break;
+        }
+        lastSequence = sequence;
+        replayed++;
+      }
+    }
+
+    if (replayed > 0) {
+      InventoryShuffle.LOGGER.info("Replayed {} state journal records", replayed);
+    }
+    return lastSequence;
+  }
+
+  private static boolean apply(byte type, DataInputStream in) throws IOException {
+    switch (type) {
+      case CREATE_GROUP -> ModState.createGroup(in.readUTF());
+      case DELETE_GROUP -> ModState.deleteGroup(in.readUTF());
+      case RENAME_GROUP -> ModState.renameGroup(in.readUTF(), in.readUTF());
+      case GROUP_OPTIONS -> {
+        String name = in.readUTF();
+        boolean enabled = in.readBoolean();
+        int interval = in.readInt();
+        int flags = in.readByte();
+        // Groups created along with their options only have this record
+        ModState.putGroup(name, enabled, interval, flags);
+      }
+      case ADD_PLAYER -> {
+        UUID uuid = new UUID(in.readLong(), in.readLong());
+        String name = in.readUTF();
+        ModState.putMember(uuid, name.isEmpty() ? null : name, in.readUTF());
+      }
+      case REMOVE_PLAYER -> ModState.removePlayerByUuid(new UUID(in.readLong(), in.readLong()));
+      default -> {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private static void begin(long sequence, byte type) {
+    record.reset();
+    try {
+      recordOut.writeLong(sequence);
+      recordOut.writeByte(type);
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  private static void end() {
+    crc.reset();
+    crc.update(record.toByteArray());
+    try {
+      DataOutputStream pendingOut = new DataOutputStream(pending);
+      pendingOut.writeInt(record.size());
+      pendingOut.writeInt((int) crc.getValue());
+      record.writeTo(pendingOut);
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  private static void writeString(String value) {
+    try {
+      recordOut.writeUTF(value);
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  private static void writeUuid(UUID uuid) {
+    try {
+      recordOut.writeLong(uuid.getMostSignificantBits());
+      recordOut.writeLong(uuid.getLeastSignificantBits());
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+}
@@ -0,0 +1,38 @@
+package samethope.inventory_shuffle.data;
+
+import java.util.List;
+
+/**
+ * Immutable copy of the saved mod state, taken on the server thread so it can
+ * be serialized and written on another thread
+ *
+ * @param version        Mutation version of the state the snapshot was taken
+ *                       at, which is also the sequence of the last journal
+ *                       record it contains
+ * @param groups         Options of every group
+ * @param memberUuids    UUIDs of every grouped player as pairs of the most and
+ *                       least significant bits
+ * @param memberGroupIds Group ID of every grouped player
+ */
+public record StateSnapshot(long version, List<GroupEntry> groups, long[] memberUuids, int[] memberGroupIds) {
+
+  /**
+   * Saved options of a group
+   *
+   * @param id          The ID of the group
+   * @param name        The name of the group
+   * @param enabled     Whether the group is enabled
+   * @param interval    The shuffle interval in ticks
+   * @param optionFlags The packed slot and scheduling options
+   * @param ticksLeft   Ticks left in the current interval
+   */
+  public record GroupEntry(int id, String name, boolean enabled, int interval, int optionFlags, int ticksLeft) {
+  }
+
+  /**
+   * Gets the number of grouped players
+   */
+  public int memberCount() {
+    return memberGroupIds.length;
+  }
+}
@@ -0,0 +1,204 @@
+package samethope.inventory_shuffle.data;
+
+import java.util.*;
+
+/**
+ * Immutable, versioned view of the groups and memberships, published by
+ * {@link ModState} after every mutation so it can be read from any thread
+ * without locks.
+ * <p>
+ * A view never changes once published, so everything read from one view is
+ * consistent. Each mutation publishes a new view that shares most of its
+ * contents with the previous one: group changes rebuild the small group
+ * tables, membership changes only copy a path of the persistent member table.
+ * The view also holds the cached names of grouped players, which are replaced
+ * when a name is cached or evicted. Shuffle timers are not part of the view.
+ */
+public final class StateView {
+  static final StateView EMPTY = new StateView(0, List.of(), Map.of(), NameIndex.EMPTY, MemberTrie.EMPTY,
+      NameIndex.EMPTY);
+
+  private final long version;
+  private final List<GroupView> groupsById;
+  private final Map<String, GroupView> groupsByName;
+  private final NameIndex groupNames;
+  private final MemberTrie members;
+  private final NameIndex playerNames;
+
+  /**
+   * The parts of a group that are visible in a view
+   *
+   * @param id          The ID of the group
+   * @param name        The name of the group
+   * @param enabled     Whether the group is enabled
+   * @param interval    The shuffle interval in ticks
+   * @param optionFlags The packed slot and scheduling options
+   */
+  public record GroupView(int id, String name, boolean enabled, int interval, int optionFlags) {
+  }
+
+  private StateView(long version, List<GroupView> groupsById, Map<String, GroupView> groupsByName,
+      NameIndex groupNames, MemberTrie members, NameIndex playerNames) {
+    this.version = version;
+    this.groupsById = groupsById;
+    this.groupsByName = groupsByName;
+    this.groupNames = groupNames;
+    this.members = members;
+    this.playerNames = playerNames;
+  }
+
+  /**
+   * Gets the mutation version of the state this view shows
+   */
+  public long version() {
+    return version;
+  }
+
+  /**
+   * Gets the names of all groups, sorted ignoring case
+   */
+  public List<String> groupNames() {
+    return groupNames.asList();
+  }
+
+  /**
+   * Finds the names of the groups starting with a prefix, ignoring case
+   *
+   * @param limit The maximum number of names to return
+   */
+  public List<String> findGroupNames(String prefix, int limit) {
+    return groupNames.find(prefix, limit);
+  }
+
+  NameIndex groupNameIndex() {
+    return groupNames;
+  }
+
+  /**
+   * Gets a group by ID
+   */
+  public Optional<GroupView> group(int id) {
+    return id >= 0 && id < groupsById.size() ? Optional.ofNullable(groupsById.get(id)) : Optional.empty();
+  }
+
+  /**
+   * Gets a group by name
+   */
+  public Optional<GroupView> group(String name) {
+    return Optional.ofNullable(groupsByName.get(name));
+  }
+
+  /**
+   * Gets the name of the group a player is in
+   */
+  public Optional<String> groupNameOf(UUID uuid) {
+    int groupId = members.get(uuid.getMostSignificantBits(), uuid.getLeastSignificantBits());
+    return groupId != UuidIntMap.NO_VALUE ? Optional.of(groupsById.get(groupId).name()) : Optional.empty();
+  }
+
+  /**
+   * Gets the number of grouped players
+   */
+  public int memberCount() {
+    return members.size();
+  }
+
+  /**
+   * Passes the UUID halves and group ID of every grouped player to a consumer,
+   * in no particular order
+   */
+  public void forEachMember(UuidIntMap.EntryConsumer consumer) {
+    members.forEach(consumer);
+  }
+
+  /**
+   * Passes grouped players to a consumer like {@link #forEachMember}, a batch
+   * at a time. A batch can run a few players over the requested size.
+   *
+   * @param cursor     0 to start, or the cursor returned for the previous batch
+   * @param maxMembers The number of players to stop after
+   * @return The cursor to continue from, or -1 once every player was passed
+   */
+  public int forEachMember(int cursor, int maxMembers, UuidIntMap.EntryConsumer consumer) {
+    return members.forEach(cursor, maxMembers, consumer);
+  }
+
+  /**
+   * Finds the cached names of grouped players that start with a prefix,
+   * ignoring case, sorted ignoring case
+   *
+   * @param limit The maximum number of names to return
+   */
+  public List<String> findPlayerNames(String prefix, int limit) {
+    return playerNames.find(prefix, limit);
+  }
+
+  NameIndex playerNameIndex() {
+    return playerNames;
+  }
+
+  /**
+   * Returns a view with new options of the groups
+   *
+   * @param groups The groups by ID, with null for unused IDs
+   */
+  StateView withGroups(long version, List<ShuffleGroup> groups) {
+    return withGroups(version, groups, groupNames);
+  }
+
+  /**
+   * Returns a view of a new version of the groups
+   *
+   * @param groups     The groups by ID, with null for unused IDs
+   * @param groupNames The index of the names of the groups
+   */
+  StateView withGroups(long version, List<ShuffleGroup> groups, NameIndex groupNames) {
+    List<GroupView> newGroupsById = new ArrayList<>(groups.size());
+    Map<String, GroupView> newGroupsByName = new HashMap<>();
+    for (ShuffleGroup group : groups) {
+      GroupView groupView = group != null
+          ? new GroupView(group.getId(), group.getName(), group.isEnabled(), group.getInterval(),
+              group.getOptionFlags())
+          : null;
+      newGroupsById.add(groupView);
+      if (groupView != null) {
+        newGroupsByName.put(groupView.name(), groupView);
+      }
+    }
+
+    return new StateView(version, Collections.unmodifiableList(newGroupsById),
+        Collections.unmodifiableMap(newGroupsByName), groupNames, members, playerNames);
+  }
+
+  /**
+   * Returns a view with a player put in a group
+   */
+  StateView withMember(long version, UUID uuid, int groupId) {
+    return new StateView(version, groupsById, groupsByName, groupNames,
+        members.put(uuid.getMostSignificantBits(), uuid.getLeastSignificantBits(), groupId), playerNames);
+  }
+
+  /**
+   * Returns a view without a player
+   */
+  StateView withoutMember(long version, UUID uuid) {
+    return new StateView(version, groupsById, groupsByName, groupNames,
+        members.remove(uuid.getMostSignificantBits(), uuid.getLeastSignificantBits()), playerNames);
+  }
+
+  /**
+   * Returns a view with the members replaced by the contents of a membership
+   * table
+   */
+  StateView withMembers(long version, UuidIntMap table) {
+    return new StateView(version, groupsById, groupsByName, groupNames, MemberTrie.of(table), playerNames);
+  }
+
+  /**
+   * Returns a view with other cached player names, keeping the version since
+   * the names are only cached
+   */
+  StateView withPlayerNames(NameIndex playerNames) {
+    return new StateView(version, groupsById, groupsByName, groupNames, members, playerNames);
+  }
+}
@@ -0,0 +1,231 @@
+package samethope.inventory_shuffle.data;
+
+import java.util.Arrays;
+import java.util.UUID;
+
+/**
+ * Open addressing hash map from UUIDs to non-negative ints.
+ * <p>
+ * Keys are stored as the two halves of the UUID in parallel {@code long}
+ * arrays, so an entry costs 21 bytes of array space instead of a map node, a
+ * UUID object and a boxed value. Collisions are resolved by linear probing and
+ * removals shift the following entries back, so no tombstones build up.
+ */
+public final class UuidIntMap {
+  /**
+   * Returned by lookups for keys that are not in the map
+   */
+  public static final int NO_VALUE = -1;
+
+  private static final int MIN_CAPACITY = 16;
+  private static final float LOAD_FACTOR = 0.75f;
+
+  private long[] mostBits;
+  private long[] leastBits;
+  private int[] values;
+  private boolean[] used;
+  private int size;
+  private int resizeAt;
+
+  /**
+   * Receives the entries of the map
+   */
+  @FunctionalInterface
+  public interface EntryConsumer {
+    void accept(long mostBits, long leastBits, int value);
+  }
+
+  public UuidIntMap() {
+    allocate(MIN_CAPACITY);
+  }
+
+  public int size() {
+    return size;
+  }
+
+  public boolean isEmpty() {
+    return size == 0;
+  }
+
+  /**
+   * Gets the value of a key
+   *
+   * @return The value, or {@link #NO_VALUE} if the key is not in the map
+   */
+  public int get(UUID uuid) {
+    return get(uuid.getMostSignificantBits(), uuid.getLeastSignificantBits());
+  }
+
+  /**
+   * Gets the value of a key given as the two halves of a UUID
+   *
+   * @return The value, or {@link #NO_VALUE} if the key is not in the map
+   */
+  public int get(long most, long least) {
+    int mask = used.length - 1;
+    for (int slot = hash(most, least) & mask; used[slot]; slot = (slot + 1) & mask) {
+      if (mostBits[slot] == most && leastBits[slot] == least) {
+        return values[slot];
+      }
+    }
+    return NO_VALUE;
+  }
+
+  public boolean containsKey(UUID uuid) {
+    return get(uuid) != NO_VALUE;
+  }
+
+  /**
+   * Maps a key to a value
+   *
+   * @param value Non-negative value
+   * @return The previous value, or {@link #NO_VALUE} if the key was not in the
+   *         map
+   */
+  public int put(UUID uuid, int value) {
+    return put(uuid.getMostSignificantBits(), uuid.getLeastSignificantBits(), value);
+  }
+
+  /**
+   * Maps a key given as the two halves of a UUID to a value
+   *
+   * @param value Non-negative value
+   * @return The previous value, or {@link #NO_VALUE} if the key was not in the
+   *         map
+   */
+  public int put(long most, long least, int value) {
+    if (value < 0) {
+      throw new IllegalArgumentException("Values must not be negative: " + value);
+    }
+
+    int mask = used.length - 1;
+    int slot = hash(most, least) & mask;
+    for (; used[slot]; slot = (slot + 1) & mask) {
+      if (mostBits[slot] == most && leastBits[slot] == least) {
+        int previous = values[slot];
+        values[slot] = value;
+        return previous;
+      }
+    }
+
+    used[slot] = true;
+    mostBits[slot] = most;
+    leastBits[slot] = least;
+    values[slot] = value;
+    if (++size > resizeAt) {
+      allocate(used.length * 2);
+    }
+    return NO_VALUE;
+  }
+
+  /**
+   * Removes a key
+   *
+   * @return The removed value, or {@link #NO_VALUE} if the key was not in the
+   *         map
+   */
+  public int remove(UUID uuid) {
+    return remove(uuid.getMostSignificantBits(), uuid.getLeastSignificantBits());
+  }
+
+  /**
+   * Removes a key given as the two halves of a UUID
+   *
+   * @return The removed value, or {@link #NO_VALUE} if the key was not in the
+   *         map
+   */
+  public int remove(long most, long least) {
+    int mask = used.length - 1;
+    for (int slot = hash(most, least) & mask; used[slot]; slot = (slot + 1) & mask) {
+      if (mostBits[slot] == most && leastBits[slot] == least) {
+        int previous = values[slot];
+        shiftBack(slot);
+        size--;
+        return previous;
+      }
+    }
+    return NO_VALUE;
+  }
+
+  public void clear() {
+    Arrays.fill(used, false);
+    size = 0;
+  }
+
+  /**
+   * Passes every entry to a consumer, in no particular order. The map must not
+   * be modified while iterating.
+   */
+  public void forEach(EntryConsumer consumer) {
+    for (int slot = 0; slot < used.length; slot++) {
+      if (used[slot]) {
+        consumer.accept(mostBits[slot], leastBits[slot], values[slot]);
+      }
+    }
+  }
+
+  /**
+   * Fills the hole left by a removed entry with the entries after it that
+   * would no longer be found past the hole
+   */
+  private void shiftBack(int hole) {
+    int mask = used.length - 1;
+    int slot = hole;
+    while (true) {
+      slot = (slot + 1) & mask;
+      if (!used[slot]) {
+        break;
+      }
+      int home = hash(mostBits[slot], leastBits[slot]) & mask;
+      // Move the entry if its home slot is not cyclically within (hole, slot]
+      if (((slot - home) & mask) >= ((slot - hole) & mask)) {
+        mostBits[hole] = mostBits[slot];
+        leastBits[hole] = leastBits[slot];
+        values[hole] = values[slot];
+        hole = slot;
+      }
+    }
+    used[hole] = false;
+  }
+
+  private void allocate(int capacity) {
+    long[] oldMost = mostBits;
+    long[] oldLeast = leastBits;
+    int[] oldValues = values;
+    boolean[] oldUsed = used;
+
+    mostBits = new long[capacity];
+    leastBits = new long[capacity];
+    values = new int[capacity];
+    used = new boolean[capacity];
+    resizeAt = (int) (capacity * LOAD_FACTOR);
+
+    if (oldUsed != null) {
+      int mask = capacity - 1;
+      for (int i = 0; i < oldUsed.length; i++) {
+        if (oldUsed[i]) {
+          int slot = hash(oldMost[i], oldLeast[i]) & mask;
+          while (used[slot]) {
+            slot = (slot + 1) & mask;
+          }
+          used[slot] = true;
+          mostBits[slot] = oldMost[i];
+          leastBits[slot] = oldLeast[i];
+          values[slot] = oldValues[i];
+        }
+      }
+    }
+  }
+
+  static int hash(long most, long least) {
+    // Finalizer of MurmurHash3, random UUIDs are already well mixed but other
+    // versions are not
+    long h = most * 31 + least;
+    h ^= h >>> 33;
+    h *= 0xff51afd7ed558ccdL;
+    h ^= h >>> 33;
+    h *= 0xc4ceb9fe1a85ec53L;
+    h ^= h >>> 33;
+    return (int) h;
+  }
+}
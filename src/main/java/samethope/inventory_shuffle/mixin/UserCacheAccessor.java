@@ -0,0 +1,17 @@
+package samethope.inventory_shuffle.mixin;
+
+import net.minecraft.util.UserCache;
+import org.spongepowered.asm.mixin.Mixin;
+import org.spongepowered.asm.mixin.gen.Accessor;
+
+import java.util.Map;
+
+/**
+ * Exposes the user cache's profiles by lower case name, so names can be looked
+ * up without {@link UserCache#findByName} asking Mojang's servers on a miss
+ */
+@Mixin(UserCache.class)
+public interface UserCacheAccessor {
+  @Accessor("byName")
+  Map<String, ?> getByName();
+}
@@ -0,0 +1,14 @@
+package samethope.inventory_shuffle.mixin;
+
+import com.mojang.authlib.GameProfile;
+import org.spongepowered.asm.mixin.Mixin;
+import org.spongepowered.asm.mixin.gen.Accessor;
+
+/**
+ * Exposes the profile of a user cache entry, which is not public
+ */
+@Mixin(targets = "net.minecraft.util.UserCache$Entry")
+public interface UserCacheEntryAccessor {
+  @Accessor("profile")
+  GameProfile getProfile();
+}
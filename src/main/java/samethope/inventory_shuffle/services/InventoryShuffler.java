@@ -3,6 +3,8 @@ package samethope.inventory_shuffle.services;
 import net.minecraft.entity.player.PlayerInventory;
 import net.minecraft.item.ItemStack;
 import net.minecraft.server.network.ServerPlayerEntity;
+import net.minecraft.screen.ScreenHandler;
+import samethope.inventory_shuffle.config.InventoryShuffleConfig;
 import samethope.inventory_shuffle.data.ModState;
 import samethope.inventory_shuffle.data.ShuffleGroup;
 
@@ -14,6 +16,32 @@ import java.util.*;
 public class InventoryShuffler {
   private static final Random RANDOM = new Random();
 
+  // Reused by every shuffle, only touched from the server thread
+  private static final SlotShuffler<ItemStack> SHUFFLER = new SlotShuffler<>(ItemStack.EMPTY);
+  private static final InventorySlots SLOTS = new InventorySlots();
+
+  /**
+   * The slots of the player inventory being shuffled
+   */
+  private static final class InventorySlots implements SlotShuffler.Slots<ItemStack> {
+    private PlayerInventory inventory;
+
+    @Override
+    public ItemStack get(int slot) {
+      return inventory.getStack(slot);
+    }
+
+    @Override
+    public void set(int slot, ItemStack stack) {
+      inventory.setStack(slot, stack);
+    }
+
+    @Override
+    public boolean isEmpty(ItemStack stack) {
+      return stack.isEmpty();
+    }
+  }
+
   /**
    * Shuffles a player's inventory based on their group options
    * 
@@ -29,89 +57,53 @@ public class InventoryShuffler {
       return;
     }
 
-    ShuffleGroup group = groupOpt.get();
-    if (!group.isEnabled()) {
-      return;
-    }
-
-    PlayerInventory inventory = player.getInventory();
-    List<ItemStack> items = new ArrayList<>();
-    List<Integer> slots = new ArrayList<>();
-    List<Integer> emptySlots = new ArrayList<>();
-
-    collectItemsForShuffle(group, inventory, items, slots, emptySlots);
-
-    if (items.isEmpty()) {
-      return;
-    }
-
-    performShuffle(group, inventory, items, slots, emptySlots);
+    shuffleInventory(player, groupOpt.get());
   }
 
   /**
-   * Collects items from specific inventory sections based on group options
+   * Shuffles a player's inventory based on the options of the given group
+   *
+   * @param player The player whose inventory should be shuffled
+   * @param group  The player's group
    */
-  private static void collectItemsForShuffle(ShuffleGroup group, PlayerInventory inventory,
-      List<ItemStack> items, List<Integer> slots, List<Integer> emptySlots) {
-    if (group.isShuffleHotbar()) {
-      for (int i = 0; i < 9; i++) {
-        if (group.isShuffleHand() || i != inventory.selectedSlot) {
-          processSlot(inventory, i, items, slots, emptySlots);
-        }
-      }
-    } else if (group.isShuffleHand()) {
-      int handSlot = inventory.selectedSlot;
-      processSlot(inventory, handSlot, items, slots, emptySlots);
-    }
-
-    if (group.isShuffleInventory()) {
-      for (int i = 9; i < 36; i++) {
-        processSlot(inventory, i, items, slots, emptySlots);
-      }
+  public static void shuffleInventory(ServerPlayerEntity player, ShuffleGroup group) {
+    if (!group.isEnabled()) {
+      return;
     }
 
-    if (group.isShuffleOffhand()) {
-      processSlot(inventory, 40, items, slots, emptySlots);
+    long startTime = System.nanoTime();
+    PlayerInventory inventory = player.getInventory();
+    SLOTS.inventory = inventory;
+    int changed = SHUFFLER.shuffle(SLOTS, group.getSlotPlan().resolve(inventory.selectedSlot),
+        group.isShuffleEmptySlots(), RANDOM);
+    SLOTS.inventory = null;
+
+    if (changed > 0) {
+      inventory.markDirty();
+      syncInventory(player, changed);
     }
+    int emptySlotsMoved = SHUFFLER.getEmptySlotsMoved();
+    ShuffleMetrics.recordShuffle(group.getId(), System.nanoTime() - startTime, changed - emptySlotsMoved,
+        emptySlotsMoved);
   }
 
   /**
-   * Processes a single inventory slot for shuffling
+   * Sends the player's whole inventory in a single packet when enough slots
+   * changed. Smaller changes are left to the per-slot updates the screen
+   * handlers send at the end of the tick.
+   *
+   * @param player  The player whose inventory was shuffled
+   * @param changed Number of slots whose stack changed
    */
-  private static void processSlot(PlayerInventory inventory, int slotIndex,
-      List<ItemStack> items, List<Integer> slots, List<Integer> emptySlots) {
-    ItemStack stack = inventory.getStack(slotIndex);
-    if (!stack.isEmpty()) {
-      items.add(stack.copy());
-      slots.add(slotIndex);
-      inventory.removeStack(slotIndex);
-    } else {
-      emptySlots.add(slotIndex);
+  private static void syncInventory(ServerPlayerEntity player, int changed) {
+    if (changed < InventoryShuffleConfig.BATCH_SYNC_THRESHOLD) {
+      return;
     }
-  }
 
-  /**
-   * Performs the actual inventory shuffling
-   */
-  private static void performShuffle(ShuffleGroup group, PlayerInventory inventory,
-      List<ItemStack> items, List<Integer> slots, List<Integer> emptySlots) {
-    Collections.shuffle(items, RANDOM);
-
-    if (group.isShuffleEmptySlots()) {
-      List<Integer> allSlots = new ArrayList<>(slots);
-      allSlots.addAll(emptySlots);
-      Collections.shuffle(allSlots, RANDOM);
-
-      List<Integer> targetSlots = allSlots.subList(0, Math.min(items.size(), allSlots.size()));
-      Collections.shuffle(targetSlots, RANDOM);
-
-      for (int i = 0; i < items.size() && i < targetSlots.size(); i++) {
-        inventory.setStack(targetSlots.get(i), items.get(i));
-      }
-    } else {
-      for (int i = 0; i < items.size() && i < slots.size(); i++) {
-        inventory.setStack(slots.get(i), items.get(i));
-      }
+    player.playerScreenHandler.syncState();
+    ScreenHandler openHandler = player.currentScreenHandler;
+    if (openHandler != player.playerScreenHandler) {
+      openHandler.syncState();
     }
   }
-}
\ No newline at end of file
+}
@@ -0,0 +1,60 @@
+package samethope.inventory_shuffle.services;
+
+import java.util.random.RandomGenerator;
+
+/**
+ * Allocation-free permutation kernel used by the inventory shuffler
+ */
+public final class ShuffleKernel {
+  /**
+   * Number of slots in a player inventory (36 main, 4 armor, 1 offhand)
+   */
+  public static final int SLOT_COUNT = 41;
+
+  private ShuffleKernel() {
+  }
+
+  /**
+   * Writes the slots taking part in a shuffle to {@code slots} in ascending
+   * order
+   *
+   * @param plan         Bitmask of the slots to shuffle
+   * @param occupied     Bitmask of the slots holding an item
+   * @param includeEmpty Whether empty planned slots take part in the shuffle
+   * @param slots        Buffer receiving the slot indices
+   * @return Number of slots written, or 0 if none of the planned slots hold an
+   *         item
+   */
+  public static int collectSlots(long plan, long occupied, boolean includeEmpty, int[] slots) {
+    long selected = plan & occupied;
+    if (selected == 0L) {
+      return 0;
+    }
+    if (includeEmpty) {
+      selected = plan;
+    }
+
+    int count = 0;
+    while (selected != 0L) {
+      slots[count++] = Long.numberOfTrailingZeros(selected);
+      selected &= selected - 1;
+    }
+    return count;
+  }
+
+  /**
+   * Fills the first {@code count} entries of {@code order} with a uniformly
+   * random permutation of {@code 0..count-1}
+   *
+   * @param order  Buffer receiving the permutation, at least {@code count} long
+   * @param count  Number of positions to permute
+   * @param random Random source
+   */
+  public static void permutation(int[] order, int count, RandomGenerator random) {
+    for (int i = 0; i < count; i++) {
+      int j = random.nextInt(i + 1);
+      order[i] = order[j];
+      order[j] = i;
+    }
+  }
+}
@@ -0,0 +1,285 @@
+package samethope.inventory_shuffle.services;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Service class that collects counters and timings of shuffles, ticks, saves and
+ * loads since the server started.
+ * <p>
+ * Everything is recorded into striped counters and fixed histograms that are
+ * allocated up front, so recording never allocates and never contends with the
+ * background threads that record saves. Counters of a group are kept by group
+ * ID and cleared when a group is created or deleted, the totals are kept for as
+ * long as the server runs.
+ */
+public class ShuffleMetrics {
+  private static final Counters total = new Counters();
+  private static final Histogram tickTime = new Histogram();
+  private static final Histogram saveTime = new Histogram();
+  private static final Histogram writeTime = new Histogram();
+  private static final Histogram loadTime = new Histogram();
+  private static final long startTime = System.nanoTime();
+
+  // Counters of each group by ID, only touched from the server thread
+  private static Counters[] groups = new Counters[0];
+
+  /**
+   * Histogram of durations in nanoseconds with one bucket per power of two
+   */
+  public static final class Histogram {
+    private static final int BUCKETS = Long.SIZE;
+
+    private final LongAdder[] buckets = new LongAdder[BUCKETS];
+    private final LongAdder count = new LongAdder();
+    private final LongAdder sum = new LongAdder();
+    private final LongAccumulator max = new LongAccumulator(Math::max, 0L);
+
+    private Histogram() {
+      for (int i = 0; i < BUCKETS; i++) {
+        buckets[i] = new LongAdder();
+      }
+    }
+
+    void record(long nanos) {
+      nanos = Math.max(nanos, 0L);
+      buckets[BUCKETS - 1 - Long.numberOfLeadingZeros(nanos | 1L)].increment();
+      count.increment();
+      sum.add(nanos);
+      max.accumulate(nanos);
+    }
+
+    public long count() {
+      return count.sum();
+    }
+
+    /**
+     * Gets the sum of all recorded durations
+     */
+    public long sum() {
+      return sum.sum();
+    }
+
+    public long max() {
+      return max.get();
+    }
+
+    /**
+     * Gets the mean of the recorded durations, or 0 if there are none
+     */
+    public long mean() {
+      long n = count();
+      return n > 0 ? sum() / n : 0L;
+    }
+
+    /**
+     * Gets an upper bound of a percentile of the recorded durations, rounded up
+     * to the end of its power of two bucket but never above the maximum
+     *
+     * @param percentile The percentile, between 0 and 100
+     * @return The upper bound, or 0 if nothing was recorded
+     */
+    public long percentile(double percentile) {
+      long[] counts = new long[BUCKETS];
+      long n = 0;
+      for (int i = 0; i < BUCKETS; i++) {
+        counts[i] = buckets[i].sum();
+        n += counts[i];
+      }
+      if (n == 0) {
+        return 0L;
+      }
+
+      long rank = Math.max(1L, (long) Math.ceil(n * percentile / 100.0));
+      long seen = 0;
+      for (int i = 0; i < BUCKETS; i++) {
+        seen += counts[i];
+        if (seen >= rank) {
+          long bound = i == BUCKETS - 1 ? Long.MAX_VALUE : (1L << (i + 1)) - 1;
+          return Math.min(bound, max());
+        }
+      }
+      return max();
+    }
+
+    void reset() {
+      for (LongAdder bucket : buckets) {
+        bucket.reset();
+      }
+      count.reset();
+      sum.reset();
+      max.reset();
+    }
+  }
+
+  /**
+   * Shuffle counters of a group or of all groups together
+   */
+  public static final class Counters {
+    private final LongAdder shuffles = new LongAdder();
+    private final LongAdder itemsMoved = new LongAdder();
+    private final LongAdder emptySlotsMoved = new LongAdder();
+    private final Histogram shuffleTime = new Histogram();
+
+    private Counters() {
+    }
+
+    /**
+     * Gets the number of inventories shuffled
+     */
+    public long shuffles() {
+      return shuffles.sum();
+    }
+
+    /**
+     * Gets the number of item stacks moved to another slot
+     */
+    public long itemsMoved() {
+      return itemsMoved.sum();
+    }
+
+    /**
+     * Gets the number of empty slots moved to another slot
+     */
+    public long emptySlotsMoved() {
+      return emptySlotsMoved.sum();
+    }
+
+    /**
+     * Gets the time taken by each shuffle of an inventory
+     */
+    public Histogram shuffleTime() {
+      return shuffleTime;
+    }
+
+    private void reset() {
+      shuffles.reset();
+      itemsMoved.reset();
+      emptySlotsMoved.reset();
+      shuffleTime.reset();
+    }
+  }
+
+  /**
+   * Records the shuffle of one inventory
+   *
+   * @param groupId         The ID of the player's group
+   * @param nanos           The time the shuffle took
+   * @param itemsMoved      Number of item stacks that moved to another slot
+   * @param emptySlotsMoved Number of empty slots that moved to another slot
+   */
+  public static void recordShuffle(int groupId, long nanos, int itemsMoved, int emptySlotsMoved) {
+    record(total, nanos, itemsMoved, emptySlotsMoved);
+    record(getGroupCounters(groupId), nanos, itemsMoved, emptySlotsMoved);
+  }
+
+  private static void record(Counters counters, long nanos, int itemsMoved, int emptySlotsMoved) {
+    counters.shuffles.increment();
+    counters.shuffleTime.record(nanos);
+    if (itemsMoved > 0) {
+      counters.itemsMoved.add(itemsMoved);
+    }
+    if (emptySlotsMoved > 0) {
+      counters.emptySlotsMoved.add(emptySlotsMoved);
+    }
+  }
+
+  /**
+   * Records the time spent processing the shuffles of one server tick
+   */
+  public static void recordTick(long nanos) {
+    tickTime.record(nanos);
+  }
+
+  /**
+   * Records the time a save took on the server thread
+   */
+  public static void recordSave(long nanos) {
+    saveTime.record(nanos);
+  }
+
+  /**
+   * Records the time a background write of the state or journal took
+   */
+  public static void recordWrite(long nanos) {
+    writeTime.record(nanos);
+  }
+
+  /**
+   * Records the time loading the state took
+   */
+  public static void recordLoad(long nanos) {
+    loadTime.record(nanos);
+  }
+
+  /**
+   * Clears the counters of a group ID, used when a group is created or deleted
+   * so a reused ID starts from zero
+   */
+  public static void resetGroup(int groupId) {
+    if (groupId < groups.length && groups[groupId] != null) {
+      groups[groupId].reset();
+    }
+  }
+
+  /**
+   * Clears the counters of all groups, used when the groups are replaced
+   */
+  public static void resetGroups() {
+    for (Counters counters : groups) {
+      if (counters != null) {
+        counters.reset();
+      }
+    }
+  }
+
+  /**
+   * Gets the counters of all groups together
+   */
+  public static Counters getTotal() {
+    return total;
+  }
+
+  /**
+   * Gets the counters of a group
+   */
+  public static Counters getGroup(int groupId) {
+    return getGroupCounters(groupId);
+  }
+
+  public static Histogram getTickTime() {
+    return tickTime;
+  }
+
+  public static Histogram getSaveTime() {
+    return saveTime;
+  }
+
+  public static Histogram getWriteTime() {
+    return writeTime;
+  }
+
+  public static Histogram getLoadTime() {
+    return loadTime;
+  }
+
+  /**
+   * Gets the time since the metrics started being collected
+   */
+  public static long getUptimeNanos() {
+    return System.nanoTime() - startTime;
+  }
+
+  private static Counters getGroupCounters(int groupId) {
+    if (groupId >= groups.length) {
+      groups = Arrays.copyOf(groups, Math.max(groupId + 1, groups.length * 2));
+    }
+    Counters counters = groups[groupId];
+    if (counters == null) {
+      counters = new Counters();
+      groups[groupId] = counters;
+    }
+    return counters;
+  }
+}
@@ -0,0 +1,99 @@
+package samethope.inventory_shuffle.services;
+
+import java.util.Arrays;
+import java.util.random.RandomGenerator;
+
+/**
+ * Shuffles the planned slots of an inventory by moving the stacks between them
+ * along a random permutation, without copying them.
+ * <p>
+ * The inventory is reached through {@link Slots}, so the same loop runs on
+ * player inventories and on the stand-in inventories of the benchmarks. The
+ * scratch buffers are reused by every shuffle, so an instance must only be
+ * used by one thread.
+ *
+ * @param <T> The type of the stacks
+ */
+public final class SlotShuffler<T> {
+  private final int[] slots = new int[ShuffleKernel.SLOT_COUNT];
+  private final int[] order = new int[ShuffleKernel.SLOT_COUNT];
+  private final Object[] stacks = new Object[ShuffleKernel.SLOT_COUNT];
+  private final T empty;
+  // Number of empty slots moved by the last shuffle
+  private int emptySlotsMoved;
+
+  /**
+   * The slots of an inventory
+   *
+   * @param <T> The type of the stacks
+   */
+  public interface Slots<T> {
+    T get(int slot);
+
+    void set(int slot, T stack);
+
+    boolean isEmpty(T stack);
+  }
+
+  /**
+   * @param empty The stack that represents an empty slot
+   */
+  public SlotShuffler(T empty) {
+    this.empty = empty;
+  }
+
+  /**
+   * Shuffles the stacks of the planned slots. Nothing is moved if none of the
+   * planned slots hold an item.
+   *
+   * @param inventory    The inventory to shuffle
+   * @param plan         Bitmask of the slots to shuffle
+   * @param includeEmpty Whether empty planned slots take part in the shuffle
+   * @param random       Random source
+   * @return Number of slots whose stack changed
+   */
+  @SuppressWarnings("unchecked")
+  public int shuffle(Slots<T> inventory, long plan, boolean includeEmpty, RandomGenerator random) {
+    emptySlotsMoved = 0;
+    long occupied = 0L;
+    for (long remaining = plan; remaining != 0L; remaining &= remaining - 1) {
+      int slot = Long.numberOfTrailingZeros(remaining);
+      if (!inventory.isEmpty(inventory.get(slot))) {
+        occupied |= 1L << slot;
+      }
+    }
+
+    int count = ShuffleKernel.collectSlots(plan, occupied, includeEmpty, slots);
+    if (count == 0) {
+      return 0;
+    }
+    for (int i = 0; i < count; i++) {
+      int slot = slots[i];
+      stacks[i] = (occupied & (1L << slot)) != 0L ? inventory.get(slot) : empty;
+    }
+
+    ShuffleKernel.permutation(order, count, random);
+
+    int changed = 0;
+    for (int i = 0; i < count; i++) {
+      T stack = (T) stacks[order[i]];
+      if (inventory.get(slots[i]) != stack) {
+        inventory.set(slots[i], stack);
+        changed++;
+        if (inventory.isEmpty(stack)) {
+          emptySlotsMoved++;
+        }
+      }
+    }
+    Arrays.fill(stacks, 0, count, null);
+    return changed;
+  }
+
+  /**
+   * Gets the number of slots the last shuffle emptied by moving an empty slot
+   * into them
+   */
+  public int getEmptySlotsMoved() {
+    return emptySlotsMoved;
+  }
+}
@@ -0,0 +1,241 @@
+package samethope.inventory_shuffle.services;
+
+import samethope.inventory_shuffle.InventoryShuffle;
+import samethope.inventory_shuffle.config.InventoryShuffleConfig;
+import samethope.inventory_shuffle.data.BackupFormat;
+import samethope.inventory_shuffle.data.StateFormat;
+import samethope.inventory_shuffle.data.StateSnapshot;
+import samethope.inventory_shuffle.utils.CachedListing;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Service class that writes, rotates and restores incremental backups of the
+ * state on a background thread.
+ * <p>
+ * Backups are named after the UTC time they were taken at, so sorting their
+ * names sorts them by age. A chain starts with a full snapshot and continues
+ * with up to {@link InventoryShuffleConfig#BACKUP_CHAIN_LENGTH} backups in
+ * total, each only holding the changes since the one before. Whole chains are
+ * deleted once the newer chains hold at least
+ * {@link InventoryShuffleConfig#BACKUP_COUNT} backups, so every kept backup can
+ * be restored. A new chain is also started whenever the snapshot of the
+ * previous backup is not in memory, such as after a restart.
+ */
+public class StateBackups {
+  private static final String BASE_SUFFIX = ".base";
+  private static final String DELTA_SUFFIX = ".delta";
+  private static final DateTimeFormatter NAME_FORMAT = DateTimeFormatter.ofPattern("yyyy-MM-dd_HH-mm-ss");
+
+  private static ExecutorService executor;
+  private static final CachedListing names = new CachedListing(StateBackups::readNames);
+
+  // Only used on the backup thread
+  private static Path lastDirectory;
+  private static StateSnapshot lastSnapshot;
+  private static int chainLength;
+
+  /**
+   * Requests a backup of a snapshot to be written in the background
+   *
+   * @param directory Path of the backup directory
+   * @param snapshot  Snapshot to back up
+   */
+  public static synchronized void submit(Path directory, StateSnapshot snapshot) {
+    getExecutor().execute(() -> write(directory, snapshot));
+  }
+
+  /**
+   * Rebuilds the state of a backup in the background, after any pending backups
+   * are written
+   *
+   * @param directory Path of the backup directory
+   * @param name      Name of the backup
+   * @return The state of the backup, or a failed future if it does not exist or
+   *         cannot be read
+   */
+  public static synchronized CompletableFuture<StateSnapshot> restore(Path directory, String name) {
+    return CompletableFuture.supplyAsync(() -> {
+      try {
+        return readBackup(directory, name);
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
+      }
+    }, getExecutor());
+  }
+
+  /**
+   * Lists the names of the backups in a directory, oldest first. The listing is
+   * reused for a few seconds or until the next backup.
+   */
+  public static List<String> list(Path directory) {
+    return names.get(directory);
+  }
+
+  private static List<String> readNames(Path directory) {
+    List<String> names = new ArrayList<>();
+    for (Path file : listFiles(directory)) {
+      names.add(getName(file));
+    }
+    return names;
+  }
+
+  /**
+   * Waits for pending backups and stops the background thread
+   */
+  public static synchronized void shutdown() {
+    if (executor == null) {
+      return;
+    }
+
+    executor.execute(() -> {
+      lastDirectory = null;
+      lastSnapshot = null;
+    });
+    executor.shutdown();
+    try {
+      if (!executor.awaitTermination(30, TimeUnit.SECONDS)) {
+        InventoryShuffle.LOGGER.warn("Timed out waiting for state backups to finish");
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    executor = null;
+  }
+
+  private static void write(Path directory, StateSnapshot snapshot) {
+    boolean delta = lastSnapshot != null && directory.equals(lastDirectory)
+        && chainLength < InventoryShuffleConfig.BACKUP_CHAIN_LENGTH;
+    String name = ZonedDateTime.now(ZoneOffset.UTC).format(NAME_FORMAT);
+    boolean compress = InventoryShuffleConfig.COMPRESS_STATE_FILE;
+
+    try {
+      Files.createDirectories(directory);
+      for (int i = 1; Files.exists(directory.resolve(name + BASE_SUFFIX))
+          || Files.exists(directory.resolve(name + DELTA_SUFFIX)); i++) {
+        name = ZonedDateTime.now(ZoneOffset.UTC).format(NAME_FORMAT) + "_" + i;
+      }
+
+      Path path = directory.resolve(name + (delta ? DELTA_SUFFIX : BASE_SUFFIX));
+      int[] written = { snapshot.memberCount() };
+      StateWriter.writeAtomically(path, out -> {
+        if (delta) {
+          written[0] = BackupFormat.writeDelta(lastSnapshot, snapshot, out, compress);
+        } else {
+          StateFormat.write(snapshot, out, compress);
+        }
+      });
+
+      lastDirectory = directory;
+      lastSnapshot = snapshot;
+      chainLength = delta ? chainLength + 1 : 1;
+      InventoryShuffle.LOGGER.info("Backed up Inventory Shuffle state as {} ({} of {} players written)", name,
+          written[0], snapshot.memberCount());
+      rotate(directory);
+    } catch (IOException e) {
+      // A failed write leaves no file behind, so the chain continues from the
+      // last backup that was written
+      InventoryShuffle.LOGGER.error("Failed to back up mod state: {}", e.getMessage(), e);
+    }
+    names.invalidate();
+  }
+
+  /**
+   * Deletes the oldest chains while the rest hold enough backups, along with
+   * deltas that lost the start of their chain
+   */
+  private static void rotate(Path directory) throws IOException {
+    List<List<Path>> chains = new ArrayList<>();
+    List<Path> orphans = new ArrayList<>();
+    int backupCount = 0;
+    for (Path file : listFiles(directory)) {
+      if (file.getFileName().toString().endsWith(BASE_SUFFIX)) {
+        chains.add(new ArrayList<>());
+      }
+      (chains.isEmpty() ? orphans : chains.get(chains.size() - 1)).add(file);
+      backupCount++;
+    }
+
+    for (Path orphan : orphans) {
+      Files.deleteIfExists(orphan);
+    }
+    backupCount -= orphans.size();
+    while (chains.size() > 1 && backupCount - chains.get(0).size() >= InventoryShuffleConfig.BACKUP_COUNT) {
+      List<Path> chain = chains.remove(0);
+      for (Path file : chain) {
+        Files.deleteIfExists(file);
+      }
+      backupCount -= chain.size();
+    }
+  }
+
+  private static StateSnapshot readBackup(Path directory, String name) throws IOException {
+    Path base = null;
+    List<Path> deltas = new ArrayList<>();
+    for (Path file : listFiles(directory)) {
+      if (file.getFileName().toString().endsWith(BASE_SUFFIX)) {
+        base = file;
+        deltas.clear();
+      } else {
+        deltas.add(file);
+      }
+
+      if (getName(file).equals(name)) {
+        if (base == null) {
+          throw new IOException("The first backup of the chain of " + name + " is missing");
+        }
+        return BackupFormat.readChain(base, deltas);
+      }
+    }
+    throw new IOException("No backup named " + name + " exists");
+  }
+
+  /**
+   * Lists the backup files in a directory, oldest first
+   */
+  private static List<Path> listFiles(Path directory) {
+    List<Path> files = new ArrayList<>();
+    if (!Files.isDirectory(directory)) {
+      return files;
+    }
+
+    try (Stream<Path> stream = Files.list(directory)) {
+      stream.filter(file -> {
+        String fileName = file.getFileName().toString();
+        return fileName.endsWith(BASE_SUFFIX) || fileName.endsWith(DELTA_SUFFIX);
+      }).sorted().forEach(files::add);
+    } catch (IOException e) {
+      InventoryShuffle.LOGGER.warn("Failed to list backups in {}: {}", directory, e.getMessage());
+    }
+    return files;
+  }
+
+  private static String getName(Path file) {
+    String fileName = file.getFileName().toString();
+    return fileName.substring(0, fileName.lastIndexOf('.'));
+  }
+
+  private static ExecutorService getExecutor() {
+    if (executor == null) {
+      executor = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "Inventory Shuffle Backup");
+        thread.setDaemon(true);
+        return thread;
+      });
+    }
+    return executor;
+  }
+}
@@ -0,0 +1,530 @@
+package samethope.inventory_shuffle.services;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonParser;
+import com.mojang.brigadier.StringReader;
+import net.minecraft.server.MinecraftServer;
+import net.minecraft.server.command.ServerCommandSource;
+import net.minecraft.text.MutableText;
+import net.minecraft.text.Text;
+import net.minecraft.util.Formatting;
+import samethope.inventory_shuffle.InventoryShuffle;
+import samethope.inventory_shuffle.config.InventoryShuffleConfig;
+import samethope.inventory_shuffle.data.ModState;
+import samethope.inventory_shuffle.data.ShuffleGroup;
+import samethope.inventory_shuffle.data.StateSnapshot;
+import samethope.inventory_shuffle.data.StateView;
+import samethope.inventory_shuffle.utils.TextUtils;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Bulk export and import of groups and memberships as JSON lines.
+ * <p>
+ * Every line of a file holds one record, either a group with its options or a
+ * player with the group they are in:
+ *
+ * <pre>
+ * {"type":"group","name":"default","enabled":true,"interval":10,"shuffleEmptySlots":true,...}
+ * {"type":"player","uuid":"069a79f4-44e9-4726-a5be-fca90e38aaf5","name":"Notch","group":"default"}
+ * </pre>
+ *
+ * Transfers run on the server thread a bounded number of records per tick, so
+ * large files neither stall the server nor get loaded into memory at once. An
+ * export writes the groups and members of the view published when it starts,
+ * which stays the same however the state changes meanwhile, an import applies the records through the regular mutators so they are journaled
+ * and saved like any other change. An import that replaces the state puts the
+ * previous state back if it fails. Only one transfer runs at a time.
+ */
+public final class StateTransfer {
+  private static final Gson GSON = new Gson();
+  private static final String TEMP_FILE_SUFFIX = ".tmp";
+  // Skipped import records beyond this many are only counted, not logged
+  private static final int MAX_LOGGED_SKIPS = 10;
+
+  private static Transfer active;
+
+  private StateTransfer() {
+  }
+
+  /**
+   * A transfer in progress
+   */
+  private interface Transfer {
+    /**
+     * Processes up to the given number of records
+     *
+     * @return true once the transfer is complete
+     */
+    boolean run(int maxRecords) throws IOException;
+
+    /**
+     * Reports the number of records processed so far
+     */
+    void reportProgress();
+
+    /**
+     * Reports the result of a completed transfer
+     */
+    void reportDone();
+
+    /**
+     * Releases the file of the transfer
+     *
+     * @param completed Whether the transfer completed
+     */
+    void close(boolean completed);
+
+    ServerCommandSource source();
+
+    Path path();
+  }
+
+  /**
+   * Checks if a transfer is in progress
+   */
+  public static boolean isRunning() {
+    return active != null;
+  }
+
+  /**
+   * Starts exporting every group and member to a file, replacing it once the
+   * export completes
+   *
+   * @param source Command source to report progress to
+   * @param path   File to export to
+   */
+  public static void startExport(ServerCommandSource source, Path path) throws IOException {
+    checkIdle();
+    active = new Export(source, path, ModState.getView());
+  }
+
+  /**
+   * Starts importing groups and members from a file
+   *
+   * @param source  Command source to report progress to
+   * @param path    File to import from
+   * @param replace Whether to remove every existing group and member first
+   *                instead of merging the file into them
+   */
+  public static void startImport(ServerCommandSource source, Path path, boolean replace) throws IOException {
+    checkIdle();
+    // The file is opened before anything is removed, and the removed state is
+    // kept to be put back if reading the file fails
+    StateSnapshot previous = replace ? ModState.createSnapshot() : null;
+    Import transfer = new Import(source, path, previous);
+    if (replace) {
+      ModState.resetState();
+    }
+    active = transfer;
+  }
+
+  private static void checkIdle() {
+    if (active != null) {
+      throw new IllegalStateException("A state transfer is already in progress");
+    }
+  }
+
+  /**
+   * Advances the transfer in progress by a chunk of records
+   */
+  public static void tick() {
+    Transfer transfer = active;
+    if (transfer == null) {
+      return;
+    }
+
+    try {
+      if (!transfer.run(InventoryShuffleConfig.TRANSFER_RECORDS_PER_TICK)) {
+        transfer.reportProgress();
+        return;
+      }
+      transfer.close(true);
+      transfer.reportDone();
+    } catch (IOException e) {
+      InventoryShuffle.LOGGER.error("State transfer with {} failed: {}", transfer.path(), e.getMessage(), e);
+      transfer.close(false);
+      transfer.source().sendError(Text.literal("Transfer failed: " + e.getMessage()));
+    }
+    active = null;
+  }
+
+  /**
+   * Abandons the transfer in progress, used when the server stops before the
+   * final save
+   */
+  public static void cancel() {
+    if (active != null) {
+      InventoryShuffle.LOGGER.warn("State transfer with {} was cancelled", active.path());
+      active.close(false);
+      active = null;
+    }
+  }
+
+  private static void sendProgress(ServerCommandSource source, String action, long records) {
+    source.sendFeedback(() -> TextUtils.getColoredText(action + " " + records + " records...", Formatting.GRAY),
+        false);
+  }
+
+  /**
+   * Checks if the progress should be reported after a chunk that ended at the
+   * given record count
+   */
+  private static boolean isProgressDue(long records, int chunkRecords) {
+    long interval = InventoryShuffleConfig.TRANSFER_PROGRESS_INTERVAL;
+    return records / interval != (records - chunkRecords) / interval;
+  }
+
+  /**
+   * Writes the groups and then the members of a view, looking up member names
+   * as they are written
+   */
+  private static final class Export implements Transfer {
+    private final ServerCommandSource source;
+    private final Path path;
+    private final Path tempPath;
+    private final StateView view;
+    private final List<String> groupNames;
+    private final BufferedWriter writer;
+    private int nextGroup;
+    private int memberCursor;
+    private int memberCount;
+    private int chunkRecords;
+
+    Export(ServerCommandSource source, Path path, StateView view) throws IOException {
+      this.source = source;
+      this.path = path;
+      this.tempPath = path.resolveSibling(path.getFileName() + TEMP_FILE_SUFFIX);
+      this.view = view;
+      this.groupNames = view.groupNames();
+
+      Files.createDirectories(path.getParent());
+      writer = Files.newBufferedWriter(tempPath, StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public boolean run(int maxRecords) throws IOException {
+      chunkRecords = 0;
+      while (chunkRecords < maxRecords && nextGroup < groupNames.size()) {
+        writeRecord(toJson(view.group(groupNames.get(nextGroup++)).orElseThrow()));
+      }
+
+      if (chunkRecords < maxRecords && memberCursor >= 0) {
+        try {
+          memberCursor = view.forEachMember(memberCursor, maxRecords - chunkRecords, this::writeMember);
+        } catch (UncheckedIOException e) {
+          throw e.getCause();
+        }
+      }
+
+      return nextGroup == groupNames.size() && memberCursor < 0;
+    }
+
+    private void writeMember(long mostBits, long leastBits, int groupId) {
+      UUID uuid = new UUID(mostBits, leastBits);
+      JsonObject json = new JsonObject();
+      json.addProperty("type", "player");
+      json.addProperty("uuid", uuid.toString());
+      String name = ModState.peekPlayerName(uuid);
+      if (name != null) {
+        json.addProperty("name", name);
+      }
+      json.addProperty("group", view.group(groupId).orElseThrow().name());
+      try {
+        writeRecord(json);
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
+      }
+      memberCount++;
+    }
+
+    private void writeRecord(JsonObject json) throws IOException {
+      writer.write(GSON.toJson(json));
+      writer.newLine();
+      chunkRecords++;
+    }
+
+    private static JsonObject toJson(StateView.GroupView group) {
+      int flags = group.optionFlags();
+      JsonObject json = new JsonObject();
+      json.addProperty("type", "group");
+      json.addProperty("name", group.name());
+      json.addProperty("enabled", group.enabled());
+      json.addProperty("interval", group.interval());
+      json.addProperty("shuffleEmptySlots", (flags & ShuffleGroup.FLAG_SHUFFLE_EMPTY_SLOTS) != 0);
+      json.addProperty("shuffleInventory", (flags & ShuffleGroup.FLAG_SHUFFLE_INVENTORY) != 0);
+      json.addProperty("shuffleHotbar", (flags & ShuffleGroup.FLAG_SHUFFLE_HOTBAR) != 0);
+      json.addProperty("shuffleHand", (flags & ShuffleGroup.FLAG_SHUFFLE_HAND) != 0);
+      json.addProperty("shuffleOffhand", (flags & ShuffleGroup.FLAG_SHUFFLE_OFFHAND) != 0);
+      json.addProperty("spread", (flags & ShuffleGroup.FLAG_SPREAD) != 0);
+      return json;
+    }
+
+    @Override
+    public void reportProgress() {
+      long records = (long) nextGroup + memberCount;
+      if (isProgressDue(records, chunkRecords)) {
+        sendProgress(source, "Exported", records);
+      }
+    }
+
+    @Override
+    public void reportDone() {
+      MutableText text = TextUtils.getColoredText("Exported ", Formatting.GOLD);
+      text.append(TextUtils.getColoredText(String.valueOf(nextGroup), Formatting.YELLOW));
+      text.append(TextUtils.getColoredText(" groups and ", Formatting.GOLD));
+      text.append(TextUtils.getColoredText(String.valueOf(memberCount), Formatting.YELLOW));
+      text.append(TextUtils.getColoredText(" players to ", Formatting.GOLD));
+      text.append(TextUtils.getColoredText("'" + path.getFileName() + "'", Formatting.YELLOW));
+      source.sendFeedback(() -> text, true);
+    }
+
+    @Override
+    public void close(boolean completed) {
+      try {
+        writer.close();
+        if (completed) {
+          Files.move(tempPath, path, StandardCopyOption.REPLACE_EXISTING);
+        } else {
+          Files.deleteIfExists(tempPath);
+        }
+      } catch (IOException e) {
+        InventoryShuffle.LOGGER.error("Failed to finish export to {}: {}", path, e.getMessage(), e);
+        if (completed) {
+          source.sendError(Text.literal("Failed to finish export: " + e.getMessage()));
+        }
+      }
+    }
+
+    @Override
+    public ServerCommandSource source() {
+      return source;
+    }
+
+    @Override
+    public Path path() {
+      return path;
+    }
+  }
+
+  /**
+   * Reads records line by line and applies them to the state. Groups are created
+   * or updated, players are added to their group if it exists by then, as
+   * exports list every group before its members. Malformed records and players
+   * of unknown groups are skipped and counted. Blank lines count towards the
+   * records per tick but are otherwise ignored.
+   */
+  private static final class Import implements Transfer {
+    private final ServerCommandSource source;
+    private final Path path;
+    private final MinecraftServer server;
+    private final BufferedReader reader;
+    private final StateSnapshot previous;
+    private long lineNumber;
+    private int chunkRecords;
+    private int groupCount;
+    private int playerCount;
+    private int skippedCount;
+
+    /**
+     * @param previous The state replaced by the import, or null if the import
+     *                 is merged into the state
+     */
+    Import(ServerCommandSource source, Path path, StateSnapshot previous) throws IOException {
+      this.source = source;
+      this.path = path;
+      this.server = source.getServer();
+      this.reader = Files.newBufferedReader(path, StandardCharsets.UTF_8);
+      this.previous = previous;
+    }
+
+    @Override
+    public boolean run(int maxRecords) throws IOException {
+      chunkRecords = 0;
+      while (chunkRecords < maxRecords) {
+        String line = reader.readLine();
+        if (line == null) {
+          return true;
+        }
+        lineNumber++;
+        chunkRecords++;
+        if (line.isBlank()) {
+          continue;
+        }
+
+        String error = apply(line);
+        if (error != null && ++skippedCount <= MAX_LOGGED_SKIPS) {
+          InventoryShuffle.LOGGER.warn("Skipped line {} of {}: {}", lineNumber, path.getFileName(), error);
+        }
+      }
+      return false;
+    }
+
+    /**
+     * Applies a record
+     *
+     * @return The reason the record was skipped, or null if it was applied
+     */
+    private String apply(String line) {
+      try {
+        JsonElement element = JsonParser.parseString(line);
+        if (!element.isJsonObject()) {
+          return "not a JSON object";
+        }
+        JsonObject json = element.getAsJsonObject();
+        String type = getString(json, "type");
+        if ("group".equals(type)) {
+          return applyGroup(json);
+        } else if ("player".equals(type)) {
+          return applyPlayer(json);
+        }
+        return "unknown record type '" + type + "'";
+      } catch (JsonParseException | IllegalStateException | UnsupportedOperationException
+          | NumberFormatException e) {
+        return "malformed record: " + e.getMessage();
+      }
+    }
+
+    private String applyGroup(JsonObject json) {
+      String name = getString(json, "name");
+      if (!isValidGroupName(name)) {
+        return "invalid group name '" + name + "'";
+      }
+      int interval = json.has("interval") ? json.get("interval").getAsInt() : -1;
+      if (json.has("interval") && interval < 1) {
+        return "invalid interval " + interval + " for group '" + name + "'";
+      }
+
+      // Options missing from the record keep their current or default value
+      ShuffleGroup group = ModState.getGroup(name).orElse(null);
+      int flags = group != null ? group.getOptionFlags() : ShuffleGroup.DEFAULT_OPTION_FLAGS;
+      flags = getFlag(json, "shuffleEmptySlots", ShuffleGroup.FLAG_SHUFFLE_EMPTY_SLOTS, flags);
+      flags = getFlag(json, "shuffleInventory", ShuffleGroup.FLAG_SHUFFLE_INVENTORY, flags);
+      flags = getFlag(json, "shuffleHotbar", ShuffleGroup.FLAG_SHUFFLE_HOTBAR, flags);
+      flags = getFlag(json, "shuffleHand", ShuffleGroup.FLAG_SHUFFLE_HAND, flags);
+      flags = getFlag(json, "shuffleOffhand", ShuffleGroup.FLAG_SHUFFLE_OFFHAND, flags);
+      flags = getFlag(json, "spread", ShuffleGroup.FLAG_SPREAD, flags);
+      boolean enabled = group != null ? group.isEnabled() : InventoryShuffleConfig.DEFAULT_ENABLED;
+      if (json.has("enabled")) {
+        enabled = json.get("enabled").getAsBoolean();
+      }
+      if (interval < 1) {
+        interval = group != null ? group.getInterval() : InventoryShuffleConfig.DEFAULT_SHUFFLE_INTERVAL;
+      }
+      ModState.putGroup(name, enabled, interval, flags);
+      groupCount++;
+      return null;
+    }
+
+    private String applyPlayer(JsonObject json) {
+      String uuidString = getString(json, "uuid");
+      UUID uuid;
+      try {
+        uuid = UUID.fromString(uuidString);
+      } catch (IllegalArgumentException | NullPointerException e) {
+        return "invalid UUID '" + uuidString + "'";
+      }
+
+      // Like when loading the state file, members of unknown groups are dropped
+      String groupName = getString(json, "group");
+      if (groupName == null || ModState.getGroup(groupName).isEmpty()) {
+        return "no group named '" + groupName + "' exists";
+      }
+
+      ModState.addPlayerToGroup(server, uuid, getString(json, "name"), groupName);
+      playerCount++;
+      return null;
+    }
+
+    private static String getString(JsonObject json, String key) {
+      JsonElement element = json.get(key);
+      return element != null && !element.isJsonNull() ? element.getAsString() : null;
+    }
+
+    private static int getFlag(JsonObject json, String key, int flag, int flags) {
+      if (!json.has(key)) {
+        return flags;
+      }
+      return json.get(key).getAsBoolean() ? flags | flag : flags & ~flag;
+    }
+
+    /**
+     * Checks if a group name could have been typed in a command
+     */
+    private static boolean isValidGroupName(String name) {
+      if (name == null || name.isEmpty()) {
+        return false;
+      }
+      for (int i = 0; i < name.length(); i++) {
+        if (!StringReader.isAllowedInUnquotedString(name.charAt(i))) {
+          return false;
+        }
+      }
+      return true;
+    }
+
+    @Override
+    public void reportProgress() {
+      long records = (long) groupCount + playerCount + skippedCount;
+      if (isProgressDue(records, chunkRecords)) {
+        sendProgress(source, "Imported", records);
+      }
+    }
+
+    @Override
+    public void reportDone() {
+      if (ModState.listGroups().isEmpty()) {
+        ModState.createGroup(InventoryShuffleConfig.DEFAULT_GROUP_NAME);
+      }
+
+      MutableText text = TextUtils.getColoredText("Imported ", Formatting.GOLD);
+      text.append(TextUtils.getColoredText(String.valueOf(groupCount), Formatting.YELLOW));
+      text.append(TextUtils.getColoredText(" groups and ", Formatting.GOLD));
+      text.append(TextUtils.getColoredText(String.valueOf(playerCount), Formatting.YELLOW));
+      text.append(TextUtils.getColoredText(" players from ", Formatting.GOLD));
+      text.append(TextUtils.getColoredText("'" + path.getFileName() + "'", Formatting.YELLOW));
+      if (skippedCount > 0) {
+        text.append(TextUtils.getColoredText(" (" + skippedCount + " invalid records skipped, see the server log)",
+            Formatting.GRAY));
+      }
+      source.sendFeedback(() -> text, true);
+    }
+
+    @Override
+    public void close(boolean completed) {
+      try {
+        reader.close();
+      } catch (IOException e) {
+        InventoryShuffle.LOGGER.warn("Failed to close {}: {}", path, e.getMessage());
+      }
+
+      if (!completed && previous != null) {
+        ModState.restoreSnapshot(server, previous);
+        InventoryShuffle.LOGGER.warn("Put back the state replaced by the import from {}", path.getFileName());
+        source.sendError(Text.literal("The groups and players from before the import were put back."));
+      }
+    }
+
+    @Override
+    public ServerCommandSource source() {
+      return source;
+    }
+
+    @Override
+    public Path path() {
+      return path;
+    }
+  }
+}
@@ -0,0 +1,334 @@
+package samethope.inventory_shuffle.services;
+
+import samethope.inventory_shuffle.InventoryShuffle;
+import samethope.inventory_shuffle.config.InventoryShuffleConfig;
+import samethope.inventory_shuffle.data.ShardedSnapshot;
+import samethope.inventory_shuffle.data.ShardedStateFormat;
+import samethope.inventory_shuffle.data.StateFormat;
+import samethope.inventory_shuffle.data.StateSnapshot;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Service class that writes state snapshots and journal records on a background
+ * thread.
+ * <p>
+ * Snapshots are written to a temporary file which is synced to disk and then
+ * atomically moved over the state file, so a crash mid-write leaves the previous
+ * state intact. Snapshot requests coalesce: while a write is in flight only the
+ * latest requested snapshot is kept and written next. Journal records are
+ * appended in order and synced to disk.
+ * <p>
+ * In the sharded layout the snapshot only holds the groups that changed, so a
+ * replaced request that was never written hands its shards down to the request
+ * replacing it.
+ * <p>
+ * A written snapshot contains every journal record up to its sequence, so the
+ * journal is reset right after it. A snapshot is always written before any
+ * record queued after it was submitted, even when it arrives while records are
+ * being appended: records older than the snapshot that end up in the reset
+ * journal are skipped on replay, while newer ones are never lost to the reset.
+ */
+public class StateWriter {
+  private static final String TEMP_FILE_SUFFIX = ".tmp";
+
+  private static final AtomicReference<PendingWrite> latest = new AtomicReference<>();
+  private static final Queue<PendingAppend> appends = new ConcurrentLinkedQueue<>();
+  private static final AtomicBoolean drainScheduled = new AtomicBoolean();
+  private static final AtomicBoolean failed = new AtomicBoolean();
+  private static final ReentrantLock writeLock = new ReentrantLock();
+  private static ExecutorService executor;
+
+  /**
+   * A requested snapshot write, holding either a single file snapshot or a
+   * sharded one
+   */
+  private record PendingWrite(Path filePath, Path journalPath, StateSnapshot snapshot, ShardedSnapshot sharded) {
+  }
+
+  /**
+   * Writes the contents of a file
+   */
+  @FunctionalInterface
+  public interface FileContents {
+    void write(OutputStream out) throws IOException;
+  }
+
+  private record PendingAppend(Path journalPath, byte[] records) {
+  }
+
+  /**
+   * Requests a snapshot to be written in the background, replacing any request
+   * that has not started yet, and the journal to be reset once it is written
+   *
+   * @param filePath    Path of the state file
+   * @param journalPath Path of the journal file
+   * @param snapshot    Snapshot to write
+   */
+  public static synchronized void submit(Path filePath, Path journalPath, StateSnapshot snapshot) {
+    latest.set(new PendingWrite(filePath, journalPath, snapshot, null));
+    scheduleDrain();
+  }
+
+  /**
+   * Requests the changed shards of a sharded snapshot and its manifest to be
+   * written in the background, and the journal to be reset once they are
+   * written
+   *
+   * @param directory   Path of the state directory
+   * @param journalPath Path of the journal file
+   * @param snapshot    Snapshot to write
+   */
+  public static synchronized void submitSharded(Path directory, Path journalPath, ShardedSnapshot snapshot) {
+    PendingWrite write = new PendingWrite(directory, journalPath, null, snapshot);
+    while (true) {
+      PendingWrite previous = latest.get();
+      PendingWrite merged = previous != null && previous.sharded() != null
+          ? new PendingWrite(directory, journalPath, null, snapshot.withUnwrittenShards(previous.sharded()))
+          : write;
+      // Fails if the writer took the previous request in the meantime
+      if (latest.compareAndSet(previous, merged)) {
+        break;
+      }
+    }
+    scheduleDrain();
+  }
+
+  /**
+   * Requests journal records to be appended in the background
+   *
+   * @param journalPath Path of the journal file
+   * @param records     Encoded journal records
+   */
+  public static synchronized void append(Path journalPath, byte[] records) {
+    if (records.length == 0) {
+      return;
+    }
+    appends.add(new PendingAppend(journalPath, records));
+    scheduleDrain();
+  }
+
+  /**
+   * Writes the pending snapshot and journal records on the calling thread, after
+   * waiting for any write in flight to finish
+   */
+  public static void flush() {
+    writeLock.lock();
+    try {
+      while (writePending()) {
+        // Keep going until nothing is pending
+      }
+    } finally {
+      writeLock.unlock();
+    }
+  }
+
+  /**
+   * Flushes pending writes and stops the background thread
+   */
+  public static synchronized void shutdown() {
+    flush();
+    if (executor != null) {
+      executor.shutdown();
+      executor = null;
+      drainScheduled.set(false);
+    }
+  }
+
+  /**
+   * Checks if a write failed since the failure was last taken, without clearing
+   * it
+   */
+  public static boolean hasFailed() {
+    return failed.get();
+  }
+
+  /**
+   * Checks if a write failed since the last call, clearing the failure
+   *
+   * @return true if the state on disk may be older than the last requested
+   *         snapshot
+   */
+  public static boolean takeFailure() {
+    return failed.getAndSet(false);
+  }
+
+  private static void scheduleDrain() {
+    if (drainScheduled.compareAndSet(false, true)) {
+      getExecutor().execute(StateWriter::drain);
+    }
+  }
+
+  private static void drain() {
+    drainScheduled.set(false);
+    boolean wrote;
+    do {
+      writeLock.lock();
+      try {
+        wrote = writePending();
+      } finally {
+        writeLock.unlock();
+      }
+    } while (wrote);
+  }
+
+  /**
+   * Writes the latest pending snapshot followed by the pending journal records
+   *
+   * @return true if anything was pending
+   */
+  private static boolean writePending() {
+    boolean wrote = writeLatest();
+
+    PendingAppend append;
+    while ((append = appends.poll()) != null) {
+      // A snapshot submitted before this record was queued is visible by now and
+      // has to be written first, or resetting the journal after it would delete
+      // the record
+      writeLatest();
+      append(append);
+      wrote = true;
+    }
+    return wrote;
+  }
+
+  /**
+   * Writes the latest pending snapshot, if any, and resets the journal it covers
+   *
+   * @return true if a snapshot was pending
+   */
+  private static boolean writeLatest() {
+    PendingWrite write = latest.getAndSet(null);
+    if (write == null) {
+      return false;
+    }
+    if (write(write)) {
+      resetJournal(write.journalPath());
+    }
+    return true;
+  }
+
+  private static boolean write(PendingWrite write) {
+    long startTime = System.nanoTime();
+    try {
+      if (write.sharded() != null) {
+        writeSharded(write.filePath(), write.sharded());
+      } else {
+        writeAtomically(write.filePath(), out -> StateFormat.write(write.snapshot(), out,
+            InventoryShuffleConfig.COMPRESS_STATE_FILE));
+      }
+
+      if (InventoryShuffleConfig.DEBUG_LOG_ENABLED) {
+        InventoryShuffle.LOGGER.debug("Saved mod state to {}", write.filePath());
+      }
+      ShuffleMetrics.recordWrite(System.nanoTime() - startTime);
+      return true;
+    } catch (IOException e) {
+      failed.set(true);
+      InventoryShuffle.LOGGER.error("Failed to save mod state: {}", e.getMessage(), e);
+      return false;
+    }
+  }
+
+  private static void writeSharded(Path directory, ShardedSnapshot snapshot) throws IOException {
+    Files.createDirectories(directory);
+    boolean compress = InventoryShuffleConfig.COMPRESS_STATE_FILE;
+
+    for (StateSnapshot.GroupEntry group : snapshot.groups()) {
+      long[] members = snapshot.shards().get(group.id());
+      if (members != null) {
+        writeAtomically(directory.resolve(ShardedStateFormat.getShardFileName(group.id())),
+            out -> ShardedStateFormat.writeShard(group, members, out, compress));
+      }
+    }
+    writeAtomically(directory.resolve(ShardedStateFormat.MANIFEST_FILE),
+        out -> ShardedStateFormat.writeManifest(snapshot, out, compress));
+
+    for (Path orphan : ShardedStateFormat.findOrphanShards(directory, snapshot)) {
+      Files.deleteIfExists(orphan);
+    }
+
+    if (InventoryShuffleConfig.DEBUG_LOG_ENABLED) {
+      InventoryShuffle.LOGGER.debug("Wrote {} of {} group shards", snapshot.shards().size(),
+          snapshot.groups().size());
+    }
+  }
+
+  /**
+   * Writes a file through a temporary file that is synced to disk and then
+   * atomically moved over it. The temporary file is deleted if writing fails, so
+   * a failed write leaves the file as it was.
+   */
+  public static void writeAtomically(Path filePath, FileContents contents) throws IOException {
+    Path tempPath = filePath.resolveSibling(filePath.getFileName() + TEMP_FILE_SUFFIX);
+    try (FileOutputStream fileOut = new FileOutputStream(tempPath.toFile());
+        BufferedOutputStream bufferedOut = new BufferedOutputStream(fileOut)) {
+      contents.write(bufferedOut);
+      bufferedOut.flush();
+      fileOut.getFD().sync();
+    } catch (IOException e) {
+      Files.deleteIfExists(tempPath);
+      throw e;
+    }
+
+    try {
+      Files.move(tempPath, filePath, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+    } catch (AtomicMoveNotSupportedException e) {
+      Files.move(tempPath, filePath, StandardCopyOption.REPLACE_EXISTING);
+    }
+  }
+
+  private static void append(PendingAppend append) {
+    long startTime = System.nanoTime();
+    try (FileChannel channel = FileChannel.open(append.journalPath(), StandardOpenOption.CREATE,
+        StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+      ByteBuffer buffer = ByteBuffer.wrap(append.records());
+      while (buffer.hasRemaining()) {
+        channel.write(buffer);
+      }
+      channel.force(false);
+
+      if (InventoryShuffleConfig.DEBUG_LOG_ENABLED) {
+        InventoryShuffle.LOGGER.debug("Appended {} bytes to {}", append.records().length, append.journalPath());
+      }
+      ShuffleMetrics.recordWrite(System.nanoTime() - startTime);
+    } catch (IOException e) {
+      failed.set(true);
+      InventoryShuffle.LOGGER.error("Failed to append to state journal: {}", e.getMessage(), e);
+    }
+  }
+
+  private static void resetJournal(Path journalPath) {
+    try {
+      Files.deleteIfExists(journalPath);
+    } catch (IOException e) {
+      // Harmless, the records it holds are older than the snapshot and skipped
+      InventoryShuffle.LOGGER.warn("Failed to reset state journal: {}", e.getMessage());
+    }
+  }
+
+  private static ExecutorService getExecutor() {
+    if (executor == null) {
+      executor = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "Inventory Shuffle Saver");
+        thread.setDaemon(true);
+        return thread;
+      });
+    }
+    return executor;
+  }
+}
@@ -0,0 +1,50 @@
+package samethope.inventory_shuffle.utils;
+
+import samethope.inventory_shuffle.config.InventoryShuffleConfig;
+
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+/**
+ * Names of the files in a directory, listed at most once every
+ * {@link InventoryShuffleConfig#SUGGESTION_LISTING_SECONDS} so command
+ * suggestions do not list the directory on every keystroke
+ */
+public final class CachedListing {
+  private final Function<Path, List<String>> lister;
+  private volatile Listing listing;
+
+  private record Listing(Path directory, List<String> names, long time) {
+  }
+
+  /**
+   * @param lister Lists the names of the files in a directory
+   */
+  public CachedListing(Function<Path, List<String>> lister) {
+    this.lister = lister;
+  }
+
+  /**
+   * Gets the names of the files in a directory, listing it again if the cached
+   * names are too old or of another directory
+   */
+  public List<String> get(Path directory) {
+    Listing cached = listing;
+    long now = System.nanoTime();
+    if (cached == null || !cached.directory().equals(directory)
+        || now - cached.time() > TimeUnit.SECONDS.toNanos(InventoryShuffleConfig.SUGGESTION_LISTING_SECONDS)) {
+      cached = new Listing(directory, List.copyOf(lister.apply(directory)), now);
+      listing = cached;
+    }
+    return cached.names();
+  }
+
+  /**
+   * Drops the cached names, used after the directory changed
+   */
+  public void invalidate() {
+    listing = null;
+  }
+}